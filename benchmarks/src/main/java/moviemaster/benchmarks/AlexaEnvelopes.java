@@ -0,0 +1,49 @@
+package moviemaster.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+import moviemaster.MovieMasterSpeechletRequestStreamHandler;
+
+/**
+ * Builds Alexa request envelopes as the Lambda handler receives them.
+ */
+public final class AlexaEnvelopes {
+
+    private AlexaEnvelopes() {
+    }
+
+    public static byte[] launch(String sessionId) {
+        return envelope(sessionId, true, "{\"type\":\"LaunchRequest\",\"requestId\":\"" + requestId()
+                + "\",\"timestamp\":\"" + timestamp() + "\"}");
+    }
+
+    /**
+     * @param slotValue value of the {@code name} slot, or null for an intent without it
+     */
+    public static byte[] intent(String sessionId, String intentName, String slotValue) {
+        String slots = (slotValue == null) ? "{}"
+                : "{\"name\":{\"name\":\"name\",\"value\":\"" + slotValue + "\"}}";
+        return envelope(sessionId, false, "{\"type\":\"IntentRequest\",\"requestId\":\"" + requestId()
+                + "\",\"timestamp\":\"" + timestamp() + "\",\"intent\":{\"name\":\"" + intentName
+                + "\",\"slots\":" + slots + "}}");
+    }
+
+    private static byte[] envelope(String sessionId, boolean newSession, String request) {
+        String json = "{\"version\":\"1.0\",\"session\":{\"new\":" + newSession + ",\"sessionId\":\"" + sessionId
+                + "\",\"application\":{\"applicationId\":\""
+                + MovieMasterSpeechletRequestStreamHandler.APPLICATION_ID
+                + "\"},\"attributes\":{},\"user\":{\"userId\":\"amzn1.ask.account.benchmark\"}},\"request\":"
+                + request + "}";
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String requestId() {
+        return "EdwRequestId." + Long.toHexString(System.nanoTime());
+    }
+
+    private static String timestamp() {
+        return Instant.now().truncatedTo(ChronoUnit.SECONDS).toString();
+    }
+}
@@ -0,0 +1,231 @@
+package moviemaster.benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.protocol.HttpContext;
+
+import com.omertron.omdbapi.OmdbApi;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the OMDb HTTP API. It answers title, imdbID and search
+ * queries with canned JSON, after a configurable delay and with configurable
+ * error and not-found rates. {@link #newOmdbApi()} returns a client whose
+ * requests are routed here whatever host the library asks for.
+ */
+public final class OmdbStubServer implements Closeable {
+
+    private static final String[][] CATALOG = { { "tt0068646", "The Godfather", "1972", "24 Mar 1972" },
+            { "tt0071562", "The Godfather Part II", "1974", "20 Dec 1974" },
+            { "tt0099674", "The Godfather Part III", "1990", "25 Dec 1990" },
+            { "tt0076759", "Star Wars", "1977", "25 May 1977" },
+            { "tt0114709", "Toy Story", "1995", "22 Nov 1995" },
+            { "tt0133093", "The Matrix", "1999", "31 Mar 1999" },
+            { "tt0111161", "The Shawshank Redemption", "1994", "14 Oct 1994" },
+            { "tt0468569", "The Dark Knight", "2008", "18 Jul 2008" } };
+
+    private static final String NOT_FOUND = "{\"Response\":\"False\",\"Error\":\"Movie not found!\"}";
+
+    private final long latencyMillis;
+    private final double errorRate;
+    private final double notFoundRate;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong notFound = new AtomicLong();
+
+    /**
+     * @param latencyMillis delay before every answer
+     * @param errorRate share of requests answered with HTTP 500
+     * @param notFoundRate share of the remaining requests answered as not found
+     */
+    public OmdbStubServer(long latencyMillis, double errorRate, double notFoundRate) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.errorRate = errorRate;
+        this.notFoundRate = notFoundRate;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "omdb-stub");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * OMDb client talking to this server. The route planner sends every
+     * request here, the request itself is left as the library built it.
+     */
+    public OmdbApi newOmdbApi() {
+        return new OmdbApi(newHttpClient());
+    }
+
+    public HttpClient newHttpClient() {
+        final HttpHost stub = new HttpHost("127.0.0.1", getPort(), "http");
+        return HttpClientBuilder.create()
+                .setRoutePlanner((HttpHost target, HttpRequest request, HttpContext context) -> new HttpRoute(stub))
+                .setMaxConnTotal(1024).setMaxConnPerRoute(1024).build();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getNotFound() {
+        return notFound.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            if (latencyMillis > 0) {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (random.nextDouble() < errorRate) {
+                errors.incrementAndGet();
+                respond(exchange, 500, "{\"Response\":\"False\",\"Error\":\"Internal error\"}");
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            if (random.nextDouble() < notFoundRate) {
+                notFound.incrementAndGet();
+                respond(exchange, 200, NOT_FOUND);
+            } else if (query.containsKey("s")) {
+                respond(exchange, 200, searchResults(query.get("s")));
+            } else if (query.containsKey("i") || query.containsKey("t")) {
+                respond(exchange, 200, video(query.get("i"), query.get("t"), "true".equals(query.get("tomatoes"))));
+            } else {
+                respond(exchange, 200, NOT_FOUND);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    private static String video(String imdbID, String title, boolean tomatoes) {
+        String[] movie = find(imdbID, title);
+        StringBuilder json = new StringBuilder(768);
+        json.append("{\"Title\":\"").append(escape(movie[1])).append("\",\"Year\":\"").append(movie[2])
+                .append("\",\"Rated\":\"R\",\"Released\":\"").append(movie[3])
+                .append("\",\"Runtime\":\"175 min\",\"Genre\":\"Crime, Drama\",\"Director\":\"Francis Ford Coppola\"")
+                .append(",\"Writer\":\"Mario Puzo\",\"Actors\":\"Marlon Brando, Al Pacino, James Caan, Diane Keaton\"")
+                .append(",\"Plot\":\"The aging patriarch of an organized crime dynasty transfers control of his ")
+                .append("clandestine empire to his reluctant son.\",\"Language\":\"English\",\"Country\":\"USA\"")
+                .append(",\"Awards\":\"Won 3 Oscars.\",\"Poster\":\"N/A\",\"Metascore\":\"100\"")
+                .append(",\"imdbRating\":\"9.2\",\"imdbVotes\":\"1,234,567\",\"imdbID\":\"").append(movie[0])
+                .append("\",\"Type\":\"movie\"");
+        if (tomatoes) {
+            json.append(",\"tomatoMeter\":\"98\",\"tomatoImage\":\"certified\",\"tomatoRating\":\"9.1\"")
+                    .append(",\"tomatoReviews\":\"82\",\"tomatoFresh\":\"80\",\"tomatoRotten\":\"2\"")
+                    .append(",\"tomatoConsensus\":\"N/A\",\"tomatoUserMeter\":\"98\",\"tomatoUserRating\":\"4.4\"")
+                    .append(",\"tomatoUserReviews\":\"730000\"");
+        }
+        return json.append(",\"Response\":\"True\"}").toString();
+    }
+
+    private static String searchResults(String term) {
+        StringBuilder json = new StringBuilder("{\"Search\":[");
+        int results = 0;
+        for (String[] movie : CATALOG) {
+            if (movie[1].toLowerCase(Locale.ENGLISH).contains(term.toLowerCase(Locale.ENGLISH))) {
+                json.append((results++ > 0) ? "," : "").append(searchResult(movie));
+            }
+        }
+        if (results == 0) {
+            json.append(searchResult(find(null, term)));
+            results = 1;
+        }
+        return json.append("],\"totalResults\":\"").append(results).append("\",\"Response\":\"True\"}").toString();
+    }
+
+    private static String searchResult(String[] movie) {
+        return "{\"Title\":\"" + escape(movie[1]) + "\",\"Year\":\"" + movie[2] + "\",\"imdbID\":\"" + movie[0]
+                + "\",\"Type\":\"movie\",\"Poster\":\"N/A\"}";
+    }
+
+    /**
+     * Movie of the catalog with the imdbID or title, or a made-up movie with
+     * a stable imdbID for any other title.
+     */
+    private static String[] find(String imdbID, String title) {
+        for (String[] movie : CATALOG) {
+            if (movie[0].equals(imdbID) || movie[1].equalsIgnoreCase(title)) {
+                return movie;
+            }
+        }
+        if (imdbID == null) {
+            imdbID = String.format("tt%07d", (title.toLowerCase(Locale.ENGLISH).hashCode() & 0x7fffffff) % 10000000);
+        }
+        return new String[] { imdbID, (title != null) ? title : "Movie " + imdbID, "2001", "01 Jan 2001" };
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> query = new HashMap<String, String>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0) {
+                query.put(parameter.substring(0, separator),
+                        URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
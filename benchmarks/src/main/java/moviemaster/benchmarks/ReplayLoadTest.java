@@ -0,0 +1,323 @@
+package moviemaster.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+
+import com.amazon.speech.Sdk;
+
+import moviemaster.MovieLookupService;
+import moviemaster.MovieMasterServer;
+import moviemaster.MovieMasterSpeechlet;
+import moviemaster.MovieMasterSpeechletRequestStreamHandler;
+
+/**
+ * Replays recorded Alexa request envelopes through the Lambda handler, in
+ * process and against {@link OmdbStubServer}, so no network is needed. A
+ * fixed number of threads sends the envelopes back to back. After a warm-up
+ * the test reports throughput, latency percentiles and the allocation rate
+ * of the whole process.
+ *
+ * <p>{@code target=server} sends the envelopes over HTTP to a
+ * {@link MovieMasterServer} on localhost instead, and {@code target=both}
+ * runs the two one after the other to compare the Lambda handler path with
+ * the long-running server. Each target gets its own speechlet, so both start
+ * with cold caches.
+ *
+ * <p>Options are given as {@code key=value}: {@code target} (handler),
+ * {@code concurrency} (16), {@code warmup} and {@code duration} in seconds
+ * (10, 30), the stub's {@code latency} in milliseconds (50),
+ * {@code errorRate} (0.01) and {@code notFoundRate} (0.05), and
+ * {@code recording}, a file with one envelope per line. The default
+ * recording covers every intent.
+ */
+public final class ReplayLoadTest {
+
+    private static final String DEFAULT_RECORDING = "/moviemaster/benchmarks/replay.jsonl";
+
+    private static final Pattern TIMESTAMP = Pattern.compile("\"timestamp\":\"[^\"]*\"");
+
+    /** The Alexa SDK rejects requests more than 150 seconds old. */
+    private static final long RESTAMP_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Where the envelopes are sent.
+     */
+    private interface Target {
+
+        /** @return whether the skill answered */
+        boolean send(byte[] envelope) throws IOException;
+    }
+
+    private final List<String> recording;
+    private final Target target;
+
+    private volatile byte[][] envelopes;
+    private volatile long stampedAt;
+
+    private volatile boolean measuring;
+    private volatile boolean stopped;
+
+    private final AtomicInteger cursor = new AtomicInteger();
+    private final AtomicLong failures = new AtomicLong();
+
+    private ReplayLoadTest(List<String> recording, Target target) {
+        this.recording = recording;
+        this.target = target;
+        restamp();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int concurrency = Integer.parseInt(option(options, "concurrency", "16"));
+        long warmupSeconds = Long.parseLong(option(options, "warmup", "10"));
+        long durationSeconds = Long.parseLong(option(options, "duration", "30"));
+        long latencyMillis = Long.parseLong(option(options, "latency", "50"));
+        double errorRate = Double.parseDouble(option(options, "errorRate", "0.01"));
+        double notFoundRate = Double.parseDouble(option(options, "notFoundRate", "0.05"));
+        String targets = option(options, "target", "handler");
+        List<String> recording = loadRecording(options.get("recording"));
+
+        try (OmdbStubServer stub = new OmdbStubServer(latencyMillis, errorRate, notFoundRate)) {
+            System.out.printf("Replaying %d envelopes, concurrency=%d, OMDb latency=%dms, errors=%.1f%%, "
+                    + "not found=%.1f%%%n", recording.size(), concurrency, latencyMillis, errorRate * 100,
+                    notFoundRate * 100);
+            if ("handler".equals(targets) || "both".equals(targets)) {
+                System.out.println("== Lambda handler");
+                MovieMasterSpeechlet speechlet = new MovieMasterSpeechlet(stub::newOmdbApi);
+                MovieMasterSpeechletRequestStreamHandler handler =
+                        new MovieMasterSpeechletRequestStreamHandler(speechlet);
+                new ReplayLoadTest(recording, envelope -> {
+                    ByteArrayOutputStream output = new ByteArrayOutputStream(2048);
+                    handler.handleRequest(new ByteArrayInputStream(envelope), output, null);
+                    return output.size() > 0;
+                }).run(concurrency, warmupSeconds, durationSeconds);
+                report(stub, speechlet);
+            }
+            if ("server".equals(targets) || "both".equals(targets)) {
+                System.out.println("== HTTP server");
+                runAgainstServer(stub, recording, concurrency, warmupSeconds, durationSeconds);
+            }
+        }
+    }
+
+    private static void runAgainstServer(OmdbStubServer stub, List<String> recording, int concurrency,
+            long warmupSeconds, long durationSeconds) throws Exception {
+        System.setProperty(Sdk.DISABLE_REQUEST_SIGNATURE_CHECK_SYSTEM_PROPERTY, "true");
+        System.setProperty(MovieLookupService.VIRTUAL_THREADS_PROPERTY, "true");
+        MovieMasterSpeechlet speechlet = new MovieMasterSpeechlet(stub::newOmdbApi);
+        MovieMasterServer server = new MovieMasterServer(speechlet, new InetSocketAddress("127.0.0.1", 0), null,
+                MovieMasterServer.DEFAULT_MAX_IN_FLIGHT);
+        server.start();
+        final String url = "http://127.0.0.1:" + server.getPort() + "/";
+        try (CloseableHttpClient client = HttpClients.custom().setMaxConnTotal(concurrency)
+                .setMaxConnPerRoute(concurrency).build()) {
+            new ReplayLoadTest(recording, envelope -> {
+                HttpPost post = new HttpPost(url);
+                post.setEntity(new ByteArrayEntity(envelope, ContentType.APPLICATION_JSON));
+                try (CloseableHttpResponse response = client.execute(post)) {
+                    EntityUtils.consume(response.getEntity());
+                    return response.getStatusLine().getStatusCode() == 200;
+                }
+            }).run(concurrency, warmupSeconds, durationSeconds);
+        } finally {
+            server.stop(1);
+            System.clearProperty(MovieLookupService.VIRTUAL_THREADS_PROPERTY);
+        }
+        report(stub, speechlet);
+    }
+
+    private static void report(OmdbStubServer stub, MovieMasterSpeechlet speechlet) {
+        System.out.printf("OMDb stub so far: requests=%d errors=%d notFound=%d%n", stub.getRequests(), stub.getErrors(),
+                stub.getNotFound());
+        System.out.println(speechlet.getMetrics());
+    }
+
+    private void run(int concurrency, long warmupSeconds, long durationSeconds) throws InterruptedException {
+        final long[][] latencies = new long[concurrency][];
+        final int[] counts = new int[concurrency];
+        final CountDownLatch finished = new CountDownLatch(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            final int worker = i;
+            Thread thread = new Thread(() -> {
+                long[] samples = new long[1 << 16];
+                int count = 0;
+                while (!stopped) {
+                    long nanos = replayOne();
+                    if (measuring) {
+                        if (count == samples.length) {
+                            samples = Arrays.copyOf(samples, count * 2);
+                        }
+                        samples[count++] = nanos;
+                    }
+                }
+                latencies[worker] = samples;
+                counts[worker] = count;
+                finished.countDown();
+            }, "replay-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        sleepRestamping(TimeUnit.SECONDS.toMillis(warmupSeconds));
+        long allocatedBefore = allocatedBytes();
+        long failuresBefore = failures.get();
+        long start = System.nanoTime();
+        measuring = true;
+        sleepRestamping(TimeUnit.SECONDS.toMillis(durationSeconds));
+        measuring = false;
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+        stopped = true;
+        finished.await();
+
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for (int i = 0; i < concurrency; i++) {
+            System.arraycopy(latencies[i], 0, all, offset, counts[i]);
+            offset += counts[i];
+        }
+        Arrays.sort(all);
+        double seconds = elapsed / 1e9;
+        System.out.printf("requests=%d failures=%d throughput=%.1f req/s%n", total, failures.get() - failuresBefore,
+                total / seconds);
+        System.out.printf("latency p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms%n", percentile(all, 50),
+                percentile(all, 99), percentile(all, 99.9), (total > 0) ? all[total - 1] / 1e6 : 0d);
+        if (allocated >= 0) {
+            System.out.printf("allocation=%.1f MB/s (%.1f KB/request)%n", allocated / 1e6 / seconds,
+                    (total > 0) ? allocated / 1e3 / total : 0d);
+        }
+    }
+
+    private long replayOne() {
+        byte[][] current = envelopes;
+        byte[] envelope = current[Math.floorMod(cursor.getAndIncrement(), current.length)];
+        long start = System.nanoTime();
+        try {
+            if (!target.send(envelope)) {
+                failures.incrementAndGet();
+            }
+        } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void sleepRestamping(long millis) throws InterruptedException {
+        long end = System.currentTimeMillis() + millis;
+        for (long now = System.currentTimeMillis(); now < end; now = System.currentTimeMillis()) {
+            if (now - stampedAt >= RESTAMP_MILLIS) {
+                restamp();
+            }
+            Thread.sleep(Math.min(1000L, end - now));
+        }
+    }
+
+    /** Gives every envelope the current time so the SDK accepts it. */
+    private void restamp() {
+        String timestamp = Matcher.quoteReplacement(
+                "\"timestamp\":\"" + Instant.now().truncatedTo(ChronoUnit.SECONDS) + "\"");
+        byte[][] stamped = new byte[recording.size()][];
+        for (int i = 0; i < stamped.length; i++) {
+            stamped[i] = TIMESTAMP.matcher(recording.get(i)).replaceAll(timestamp).getBytes(StandardCharsets.UTF_8);
+        }
+        stampedAt = System.currentTimeMillis();
+        envelopes = stamped;
+    }
+
+    /**
+     * Bytes allocated so far by the live threads, or -1 if the JVM does not
+     * tell. Threads that ended in between are not counted.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1L;
+        }
+        long total = 0;
+        for (long allocated : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(
+                threads.getAllThreadIds())) {
+            if (allocated > 0) {
+                total += allocated;
+            }
+        }
+        return total;
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0d;
+        }
+        int index = (int) Math.ceil(sorted.length * percentile / 100d) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+
+    private static List<String> loadRecording(String path) throws IOException {
+        InputStream input = (path != null) ? new FileInputStream(path)
+                : ReplayLoadTest.class.getResourceAsStream(DEFAULT_RECORDING);
+        if (input == null) {
+            throw new IOException("Recording " + DEFAULT_RECORDING + " not found");
+        }
+        List<String> envelopes = new ArrayList<String>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                    envelopes.add(line);
+                }
+            }
+        }
+        if (envelopes.isEmpty()) {
+            throw new IOException("The recording has no envelopes");
+        }
+        return envelopes;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected key=value but got " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        return options;
+    }
+
+    private static String option(Map<String, String> options, String key, String defaultValue) {
+        String value = options.get(key);
+        return (value != null) ? value : defaultValue;
+    }
+}
@@ -0,0 +1,109 @@
+package moviemaster.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.amazon.speech.slu.Intent;
+import com.amazon.speech.slu.Slot;
+import com.amazon.speech.speechlet.IntentRequest;
+import com.amazon.speech.speechlet.Session;
+import com.amazon.speech.speechlet.SpeechletException;
+import com.amazon.speech.speechlet.SpeechletResponse;
+
+import moviemaster.MovieMasterSpeechlet;
+import moviemaster.MovieMasterSpeechletRequestStreamHandler;
+
+/**
+ * CPU and allocation cost of answering each intent once OMDb has answered.
+ * The speechlet runs against {@link StubOmdbApi} and the record cache is
+ * filled in the setup, so {@link #onIntent()} measures slot handling, title
+ * resolution and response building, and {@link #handleRequest()} adds the
+ * JSON envelope parsing and serialization around it.
+ *
+ * <p>Every invocation uses a new session, so the record is looked up through
+ * the title index and the record cache rather than taken from the session.
+ * {@link #main(String[])} adds the GC profiler, which reports the bytes
+ * allocated per operation as {@code gc.alloc.rate.norm}. Other JMH options
+ * are passed through, for example {@code SpeechletBenchmark -p intentName=GetMovieActorsIntent}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Dmoviemaster.prime=false" })
+public class SpeechletBenchmark {
+
+    private static final String SLOT_VALUE = "the godfather";
+
+    @Param({ "GetMovieInfoIntent", "GetMovieRatingIntent", "GetMovieListingsIntent", "GetMovieDirectorIntent",
+            "GetMovieActorsIntent", "GetMoviePlotIntent", "GetMovieReleaseDateIntent", "AMAZON.HelpIntent" })
+    public String intentName;
+
+    private MovieMasterSpeechlet speechlet;
+
+    private MovieMasterSpeechletRequestStreamHandler handler;
+
+    private IntentRequest request;
+
+    private byte[] envelope;
+
+    private long sessions;
+
+    @Setup
+    public void setUp() throws Exception {
+        speechlet = new MovieMasterSpeechlet(StubOmdbApi::new);
+        handler = new MovieMasterSpeechletRequestStreamHandler(speechlet);
+        String slotValue = intentName.startsWith("AMAZON.") ? null : SLOT_VALUE;
+        Intent.Builder intent = Intent.builder().withName(intentName);
+        if (slotValue != null) {
+            intent.withSlots(Collections.singletonMap("name",
+                    Slot.builder().withName("name").withValue(slotValue).build()));
+        }
+        request = IntentRequest.builder().withRequestId("EdwRequestId.benchmark").withTimestamp(new Date())
+                .withIntent(intent.build()).build();
+        envelope = AlexaEnvelopes.intent("SessionId.benchmark", intentName, slotValue);
+        // fills the record cache, the rating intent asks for the tomatoes record
+        onIntent();
+        handleRequest();
+    }
+
+    @Benchmark
+    public SpeechletResponse onIntent() throws SpeechletException {
+        Session session = Session.builder().withSessionId("SessionId.benchmark-" + sessions++).withIsNew(false)
+                .build();
+        return speechlet.onIntent(request, session);
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream handleRequest() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(2048);
+        handler.handleRequest(new ByteArrayInputStream(envelope), output, null);
+        return output;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().parent(new CommandLineOptions(args))
+                .include(SpeechletBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+    }
+}
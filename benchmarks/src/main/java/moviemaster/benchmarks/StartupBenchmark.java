@@ -0,0 +1,88 @@
+package moviemaster.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reports time-to-first-response of a cold JVM with and without the
+ * init-phase priming of {@code MovieMasterBootstrap}.
+ *
+ * <p>Every run starts a fresh JVM with {@link StartupProbe}, so class loading
+ * and JIT state are as cold as in a new Lambda container. Usage:
+ * {@code StartupBenchmark [runs]}, 10 runs per mode by default. The numbers
+ * are medians and 90th percentiles in milliseconds; "init" is the handler
+ * constructor, "first" the first movie intent after it and "total" the JVM
+ * uptime when the first response was written.
+ */
+public final class StartupBenchmark {
+
+    private static final String[] METRICS = { "init", "first", "uptime" };
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int runs = (args.length > 0) ? Integer.parseInt(args[0]) : 10;
+        for (boolean prime : new boolean[] { false, true }) {
+            Map<String, List<Long>> samples = new HashMap<String, List<Long>>();
+            for (int i = 0; i < runs; i++) {
+                for (Map.Entry<String, Long> sample : runProbe(prime).entrySet()) {
+                    if (!samples.containsKey(sample.getKey())) {
+                        samples.put(sample.getKey(), new ArrayList<Long>());
+                    }
+                    samples.get(sample.getKey()).add(sample.getValue());
+                }
+            }
+            report(prime ? "primed" : "unprimed", samples);
+        }
+    }
+
+    private static Map<String, Long> runProbe(boolean prime) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(Arrays.asList(java, "-cp", System.getProperty("java.class.path"),
+                "-Dmoviemaster.prime=" + prime, StartupProbe.class.getName()));
+        builder.redirectErrorStream(true);
+        Process process = builder.start();
+        Map<String, Long> result = new HashMap<String, Long>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("RESULT ")) {
+                    for (String field : line.substring("RESULT ".length()).split(" ")) {
+                        String[] pair = field.split("=");
+                        result.put(pair[0], Long.parseLong(pair[1]));
+                    }
+                }
+            }
+        }
+        if (process.waitFor() != 0 || result.isEmpty()) {
+            throw new IllegalStateException("Startup probe failed with exit code " + process.exitValue());
+        }
+        return result;
+    }
+
+    private static void report(String mode, Map<String, List<Long>> samples) {
+        StringBuilder line = new StringBuilder(String.format("%-9s", mode));
+        for (String metric : METRICS) {
+            List<Long> values = samples.get(metric);
+            Collections.sort(values);
+            line.append(String.format("  %s p50=%.1fms p90=%.1fms", metric.equals("uptime") ? "total" : metric,
+                    percentile(values, 0.5) / 1000.0, percentile(values, 0.9) / 1000.0));
+        }
+        System.out.println(line);
+    }
+
+    private static long percentile(List<Long> sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+}
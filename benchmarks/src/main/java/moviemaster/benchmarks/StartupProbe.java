@@ -0,0 +1,37 @@
+package moviemaster.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+
+import moviemaster.MovieMasterSpeechlet;
+import moviemaster.MovieMasterSpeechletRequestStreamHandler;
+
+/**
+ * Child process of {@link StartupBenchmark}. Simulates a cold container: it
+ * constructs the handler as the Lambda init phase does, answers one movie
+ * intent and prints the timings on a single {@code RESULT} line.
+ */
+public final class StartupProbe {
+
+    private StartupProbe() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        long start = System.nanoTime();
+        MovieMasterSpeechletRequestStreamHandler handler =
+                new MovieMasterSpeechletRequestStreamHandler(new MovieMasterSpeechlet(StubOmdbApi::new));
+        long initialized = System.nanoTime();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        handler.handleRequest(new ByteArrayInputStream(
+                AlexaEnvelopes.intent("SessionId.startup", "GetMovieInfoIntent", "the godfather")), output, null);
+        long responded = System.nanoTime();
+        if (output.size() == 0) {
+            throw new IllegalStateException("No response written");
+        }
+
+        System.out.println("RESULT init=" + (initialized - start) / 1000 + " first=" + (responded - initialized) / 1000
+                + " uptime=" + ManagementFactory.getRuntimeMXBean().getUptime() * 1000);
+    }
+}
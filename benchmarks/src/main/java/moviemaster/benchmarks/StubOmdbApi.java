@@ -0,0 +1,62 @@
+package moviemaster.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.omertron.omdbapi.OMDBException;
+import com.omertron.omdbapi.OmdbApi;
+import com.omertron.omdbapi.model.OmdbVideoBasic;
+import com.omertron.omdbapi.model.OmdbVideoFull;
+import com.omertron.omdbapi.model.SearchResults;
+import com.omertron.omdbapi.tools.OmdbParameters;
+
+/**
+ * OMDb client that answers every call with the same canned record, so the
+ * benchmarks measure the skill and not the network.
+ */
+public class StubOmdbApi extends OmdbApi {
+
+    private final OmdbVideoFull video = sampleVideo();
+    private final SearchResults searchResults = sampleSearchResults();
+
+    @Override
+    public OmdbVideoFull getInfo(OmdbParameters parameters) throws OMDBException {
+        return video;
+    }
+
+    @Override
+    public SearchResults search(OmdbParameters parameters) throws OMDBException {
+        return searchResults;
+    }
+
+    public static OmdbVideoFull sampleVideo() {
+        OmdbVideoFull video = new OmdbVideoFull();
+        video.setImdbID("tt0068646");
+        video.setTitle("The Godfather");
+        video.setYear("1972");
+        video.setPlot("The aging patriarch of an organized crime dynasty transfers control of his clandestine "
+                + "empire to his reluctant son.");
+        video.setActors("Marlon Brando, Al Pacino, James Caan, Richard S. Castellano");
+        video.setDirector("Francis Ford Coppola");
+        video.setImdbRating("9.2");
+        video.setTomatoRating("9.1");
+        video.setReleased("24 Mar 1972");
+        return video;
+    }
+
+    public static SearchResults sampleSearchResults() {
+        List<OmdbVideoBasic> results = new ArrayList<OmdbVideoBasic>();
+        String[][] titles = { { "tt0068646", "The Godfather" }, { "tt0071562", "The Godfather Part II" },
+                { "tt0099674", "The Godfather Part III" } };
+        for (String[] title : titles) {
+            OmdbVideoBasic basic = new OmdbVideoBasic();
+            basic.setImdbID(title[0]);
+            basic.setTitle(title[1]);
+            results.add(basic);
+        }
+        SearchResults searchResults = new SearchResults();
+        searchResults.setResults(results);
+        searchResults.setTotalResults(results.size());
+        return searchResults;
+    }
+}
@@ -0,0 +1,104 @@
+package moviemaster.benchmarks;
+
+import java.util.Random;
+
+import moviemaster.TitleIndex;
+
+/**
+ * Measures heap used by the {@link TitleIndex} and its lookup latency for
+ * exact, phonetic and fuzzy matches. Titles are three words drawn from a
+ * synthetic vocabulary plus a unique suffix. Usage: {@code TitleIndexBenchmark [titles]},
+ * one million synthetic titles by default. Run with a heap large enough for
+ * the index, for example {@code -Xmx4g}.
+ */
+public final class TitleIndexBenchmark {
+
+    private static final String CONSONANTS = "bcdfghjklmnprstvwz";
+    private static final String VOWELS = "aeiou";
+
+    private static final int VOCABULARY = 20000;
+
+    private static final int LOOKUPS = 100000;
+
+    private TitleIndexBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int size = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+        Random random = new Random(42);
+        String[] words = new String[VOCABULARY];
+        for (int i = 0; i < VOCABULARY; i++) {
+            StringBuilder word = new StringBuilder();
+            for (int syllables = 1 + random.nextInt(3); syllables >= 0; syllables--) {
+                word.append(CONSONANTS.charAt(random.nextInt(CONSONANTS.length())))
+                        .append(VOWELS.charAt(random.nextInt(VOWELS.length())));
+                if (random.nextBoolean()) {
+                    word.append(CONSONANTS.charAt(random.nextInt(CONSONANTS.length())));
+                }
+            }
+            words[i] = word.toString();
+        }
+        String[] titles = new String[size];
+        for (int i = 0; i < size; i++) {
+            titles[i] = words[random.nextInt(VOCABULARY)] + " " + words[random.nextInt(VOCABULARY)] + " "
+                    + words[random.nextInt(VOCABULARY)] + " " + Integer.toString(i, 36);
+        }
+
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        TitleIndex index = new TitleIndex();
+        for (int i = 0; i < size; i++) {
+            index.register(titles[i], "tt" + i);
+        }
+        long buildNanos = System.nanoTime() - start;
+        long heapAfter = usedHeap();
+
+        System.out.printf("titles=%d build=%.1fms heap=%.1fMB (%.1fMB per million titles)%n", index.size(),
+                buildNanos / 1e6, (heapAfter - heapBefore) / 1e6, (heapAfter - heapBefore) / 1e6 * 1000000 / size);
+
+        report("exact", index, titles, random, 0);
+        report("phonetic", index, titles, random, 1);
+        report("fuzzy", index, titles, random, 2);
+    }
+
+    /**
+     * @param variant 0 asks for the title as registered, 1 with vowels changed
+     *            and 2 with the last character dropped
+     */
+    private static void report(String name, TitleIndex index, String[] titles, Random random, int variant) {
+        String[] queries = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            String title = titles[random.nextInt(titles.length)];
+            if (variant == 1) {
+                title = title.replace('a', 'e').replace('o', 'u');
+            } else if (variant == 2) {
+                title = title.substring(0, title.length() - 1);
+            }
+            queries[i] = title;
+        }
+        for (int i = 0; i < LOOKUPS / 4; i++) {
+            resolve(index, queries[i], variant);
+        }
+        int matched = 0;
+        long start = System.nanoTime();
+        for (String query : queries) {
+            if (resolve(index, query, variant) != null) {
+                matched++;
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.printf("%-8s avg=%.2fus matched=%.1f%%%n", name, nanos / 1e3 / LOOKUPS, 100.0 * matched / LOOKUPS);
+    }
+
+    private static TitleIndex.Match resolve(TitleIndex index, String query, int variant) {
+        return (variant == 0) ? index.resolveExact(query) : index.resolveFuzzy(query);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,398 @@
+package moviemaster;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Turns OMDb JSON dumps into a {@link MovieRecordStore}. A dump has one OMDb
+ * record per line and may be gzipped. It is read as a stream, so its size is
+ * not bounded by the heap.
+ *
+ * <p>Lines are read in batches of {@link #BATCH_SIZE}. The batches are parsed
+ * with Jackson's streaming parser, normalized by {@link MovieSummary} and
+ * encoded on all cores. They are written in input order, so a later record
+ * for a movie still replaces an earlier one. Only a few batches are in
+ * flight at a time.
+ *
+ * <p>A delta file has the same format and holds the new and changed records.
+ * A record with {@code "Deleted":"True"} removes the movie. Only the last
+ * change of a movie in the delta counts. Applying it
+ * copies the unchanged records of the base store byte for byte and encodes
+ * only the records of the delta.
+ */
+public final class CatalogIngest {
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogIngest.class);
+
+    public static final int BATCH_SIZE = 1024;
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final int threads;
+
+    public CatalogIngest() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public CatalogIngest(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /** Builds the store from the whole dump. */
+    public Report ingest(Path dump, Path store) throws IOException {
+        long start = System.nanoTime();
+        Report report = new Report();
+        try (MovieRecordStoreBuilder builder = new MovieRecordStoreBuilder(store)) {
+            parse(dump, report, record -> {
+                if (!record.deleted) {
+                    builder.addEncoded(record.encoded);
+                    report.added++;
+                }
+            });
+            report.records = builder.finish();
+        }
+        report.nanos = System.nanoTime() - start;
+        return report;
+    }
+
+    /**
+     * Writes the base store with the delta applied to {@code store}, which
+     * may be the base itself.
+     */
+    public Report applyDelta(Path base, Path delta, Path store) throws IOException {
+        long start = System.nanoTime();
+        final Report report = new Report();
+        final Map<String, Record> changes = new LinkedHashMap<String, Record>();
+        parse(delta, report, change -> {
+            // the last change of a movie replaces the earlier ones, in its place
+            changes.remove(change.imdbID);
+            changes.put(change.imdbID, change);
+        });
+        MovieRecordStore baseStore = MovieRecordStore.open(base);
+        try (MovieRecordStoreBuilder builder = new MovieRecordStoreBuilder(store)) {
+            baseStore.forEachRecord((buffer, record, end) -> {
+                if (!changes.containsKey(imdbID(buffer, record))) {
+                    builder.addRaw(buffer, record, end);
+                    report.copied++;
+                }
+            });
+            for (Record change : changes.values()) {
+                boolean existed = baseStore.containsImdbID(change.imdbID);
+                if (change.deleted) {
+                    report.deleted += existed ? 1 : 0;
+                    continue;
+                }
+                builder.addEncoded(change.encoded);
+                if (existed) {
+                    report.replaced++;
+                } else {
+                    report.added++;
+                }
+            }
+            report.records = builder.finish();
+        }
+        report.nanos = System.nanoTime() - start;
+        return report;
+    }
+
+    /**
+     * Reads the file in batches, parses them in parallel and hands the
+     * records to the sink in file order.
+     */
+    private void parse(Path file, Report report, RecordSink sink) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "catalog-ingest");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayDeque<Future<Batch>> inFlight = new ArrayDeque<Future<Batch>>();
+        try (BufferedReader reader = open(file)) {
+            List<String> lines = new ArrayList<String>(BATCH_SIZE);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+                if (lines.size() == BATCH_SIZE) {
+                    final List<String> batch = lines;
+                    inFlight.add(workers.submit(() -> parseBatch(batch)));
+                    lines = new ArrayList<String>(BATCH_SIZE);
+                    if (inFlight.size() > 2 * threads) {
+                        drain(inFlight.poll(), report, sink);
+                    }
+                }
+            }
+            final List<String> batch = lines;
+            inFlight.add(workers.submit(() -> parseBatch(batch)));
+            while (!inFlight.isEmpty()) {
+                drain(inFlight.poll(), report, sink);
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static void drain(Future<Batch> future, Report report, RecordSink sink) throws IOException {
+        Batch batch;
+        try {
+            batch = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not parse a batch", e.getCause());
+        }
+        report.lines += batch.lines;
+        report.skipped += batch.skipped;
+        for (Record record : batch.records) {
+            sink.accept(record);
+        }
+    }
+
+    private static BufferedReader open(Path file) throws IOException {
+        InputStream input = Files.newInputStream(file);
+        if (file.getFileName().toString().endsWith(".gz")) {
+            input = new GZIPInputStream(input, 1 << 16);
+        }
+        return new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    private static Batch parseBatch(List<String> lines) {
+        Batch batch = new Batch(lines.size());
+        for (String line : lines) {
+            if (StringUtils.isBlank(line)) {
+                continue;
+            }
+            batch.lines++;
+            try {
+                Record record = parseRecord(line);
+                if (record != null) {
+                    batch.records.add(record);
+                } else {
+                    batch.skipped++;
+                }
+            } catch (IOException e) {
+                log.debug("Skipping a malformed record: {}", e.getMessage());
+                batch.skipped++;
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Reads the fields the store keeps and skips the rest, nested values
+     * included, without building a tree.
+     *
+     * @return the record, or null if it has no imdbID, title or is an error
+     *         response
+     */
+    static Record parseRecord(String line) throws IOException {
+        String imdbID = null;
+        String title = null;
+        String plot = null;
+        String actors = null;
+        String director = null;
+        String imdbRating = null;
+        String tomatoRating = null;
+        String released = null;
+        boolean tomatoes = false;
+        boolean deleted = false;
+        try (JsonParser parser = JSON.createParser(line)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                switch (name) {
+                case "imdbID":
+                    imdbID = parser.getValueAsString();
+                    break;
+                case "Title":
+                    title = parser.getValueAsString();
+                    break;
+                case "Plot":
+                    plot = parser.getValueAsString();
+                    break;
+                case "Actors":
+                    actors = parser.getValueAsString();
+                    break;
+                case "Director":
+                    director = parser.getValueAsString();
+                    break;
+                case "imdbRating":
+                    imdbRating = parser.getValueAsString();
+                    break;
+                case "tomatoRating":
+                    tomatoRating = parser.getValueAsString();
+                    tomatoes = true;
+                    break;
+                case "Released":
+                    released = parser.getValueAsString();
+                    break;
+                case "Response":
+                    if ("False".equalsIgnoreCase(parser.getValueAsString())) {
+                        return null;
+                    }
+                    break;
+                case "Deleted":
+                    deleted = "True".equalsIgnoreCase(parser.getValueAsString());
+                    break;
+                default:
+                    break;
+                }
+            }
+        }
+        if (StringUtils.isBlank(imdbID)) {
+            return null;
+        }
+        String key = new String(MovieRecordStore.imdbIDKey(imdbID), StandardCharsets.UTF_8);
+        if (deleted) {
+            return new Record(key, null, true);
+        }
+        byte[] encoded = MovieRecordStoreBuilder.encode(new MovieSummary(null, imdbID, title, plot, actors,
+                director, imdbRating, tomatoRating, released, tomatoes));
+        return (encoded != null) ? new Record(key, encoded, false) : null;
+    }
+
+    private static String imdbID(ByteBuffer buffer, int record) {
+        return new String(MovieRecordStore.fieldBytes(buffer, record, MovieRecordStore.FIELD_IMDB_ID),
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Builds or updates a store:
+     * {@code CatalogIngest dump.jsonl[.gz] movies.mmrs} or
+     * {@code CatalogIngest --delta delta.jsonl[.gz] base.mmrs movies.mmrs}.
+     * The number of parsing threads is taken from
+     * {@code moviemaster.ingest.threads}, all cores by default.
+     */
+    public static void main(String[] args) throws IOException {
+        CatalogIngest ingest = new CatalogIngest(
+                Integer.getInteger("moviemaster.ingest.threads", Runtime.getRuntime().availableProcessors()));
+        Report report;
+        if (args.length == 2) {
+            report = ingest.ingest(Paths.get(args[0]), Paths.get(args[1]));
+        } else if (args.length == 4 && "--delta".equals(args[0])) {
+            report = ingest.applyDelta(Paths.get(args[2]), Paths.get(args[1]), Paths.get(args[3]));
+        } else {
+            System.err.println("Usage: CatalogIngest <dump.jsonl[.gz]> <store.mmrs>");
+            System.err.println("       CatalogIngest --delta <delta.jsonl[.gz]> <base.mmrs> <store.mmrs>");
+            System.exit(2);
+            return;
+        }
+        System.out.println(report);
+    }
+
+    private interface RecordSink {
+        void accept(Record record) throws IOException;
+    }
+
+    static final class Record {
+
+        final String imdbID;
+        final byte[] encoded;
+        final boolean deleted;
+
+        Record(String imdbID, byte[] encoded, boolean deleted) {
+            this.imdbID = imdbID;
+            this.encoded = encoded;
+            this.deleted = deleted;
+        }
+    }
+
+    private static final class Batch {
+
+        final List<Record> records;
+        int lines;
+        int skipped;
+
+        Batch(int size) {
+            this.records = new ArrayList<Record>(size);
+        }
+    }
+
+    /**
+     * What an ingest did. Throughput is over the parsed lines and the whole
+     * run, writing included.
+     */
+    public static final class Report {
+
+        private long lines;
+        private long skipped;
+        private long added;
+        private long replaced;
+        private long deleted;
+        private long copied;
+        private int records;
+        private long nanos;
+
+        public long getLines() {
+            return lines;
+        }
+
+        public long getSkipped() {
+            return skipped;
+        }
+
+        public long getAdded() {
+            return added;
+        }
+
+        public long getReplaced() {
+            return replaced;
+        }
+
+        public long getDeleted() {
+            return deleted;
+        }
+
+        /** Records of the base store kept as they were. */
+        public long getCopied() {
+            return copied;
+        }
+
+        /** Records in the written store. */
+        public int getRecords() {
+            return records;
+        }
+
+        public long getRecordsPerSecond() {
+            return (nanos > 0) ? lines * 1000000000L / nanos : 0L;
+        }
+
+        @Override
+        public String toString() {
+            return "Ingested " + lines + " lines in " + (nanos / 1000000L) + " ms (" + getRecordsPerSecond()
+                    + " records/s): " + records + " records, " + added + " added, " + replaced + " replaced, "
+                    + deleted + " deleted, " + copied + " copied, " + skipped + " skipped";
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package moviemaster;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stops calls to a failing upstream. After a number of consecutive failures
+ * the breaker opens and rejects calls; once the open period has passed a
+ * single trial call is let through, which closes the breaker on success and
+ * re-opens it on failure. A trial call that never reports back is replaced
+ * by another one after a further open period, so the breaker cannot stay
+ * half open for good.
+ *
+ * <p>Callers record exactly one outcome per upstream call, however many
+ * requests were waiting for it.
+ */
+public class CircuitBreaker {
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private final AtomicReference<State> state = new AtomicReference<State>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong openedAt = new AtomicLong();
+    private final AtomicLong trips = new AtomicLong();
+
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+    }
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * True when a call may go upstream. Moves an open breaker whose open
+     * period has passed to half open and lets exactly one caller through.
+     */
+    public boolean allowRequest() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        long since = openedAt.get();
+        if (now - since < openMillis || !openedAt.compareAndSet(since, now)) {
+            return false;
+        }
+        return current == State.HALF_OPEN || state.compareAndSet(State.OPEN, State.HALF_OPEN);
+    }
+
+    public void recordSuccess() {
+        consecutiveFailures.set(0);
+        state.set(State.CLOSED);
+    }
+
+    public void recordFailure() {
+        int failures = consecutiveFailures.incrementAndGet();
+        State current = state.get();
+        if (current == State.HALF_OPEN || (current == State.CLOSED && failures >= failureThreshold)) {
+            openedAt.set(System.currentTimeMillis());
+            if (state.compareAndSet(current, State.OPEN)) {
+                trips.incrementAndGet();
+            }
+        }
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /** Number of times the breaker has opened. */
+    public long getTrips() {
+        return trips.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker[state=" + state.get() + ", trips=" + trips.get() + "]";
+    }
+}
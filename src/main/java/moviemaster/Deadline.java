@@ -0,0 +1,38 @@
+package moviemaster;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency budget of a single request, fixed when the request arrives.
+ */
+public final class Deadline {
+
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public static Deadline after(long budgetMillis) {
+        return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis));
+    }
+
+    /**
+     * Deadline for the first of several steps run one after the other, which
+     * gets an equal share of the time left so the later steps are not starved
+     * by a slow first one.
+     */
+    public Deadline share(int steps) {
+        long now = System.nanoTime();
+        long remaining = deadlineNanos - now;
+        return (remaining > 0 && steps > 1) ? new Deadline(now + remaining / steps) : this;
+    }
+
+    public long remainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return deadlineNanos - System.nanoTime() <= 0;
+    }
+}
@@ -0,0 +1,19 @@
+package moviemaster;
+
+import com.amazon.speech.slu.Intent;
+import com.amazon.speech.speechlet.Session;
+import com.amazon.speech.speechlet.SpeechletException;
+import com.amazon.speech.speechlet.SpeechletResponse;
+
+/**
+ * Answers one intent. {@link MovieMasterSpeechlet} looks the handler up by
+ * the intent name, so a new intent only needs a handler registered for it.
+ */
+interface IntentHandler {
+
+    /**
+     * @param deadline time left before the skill has to answer, shared by
+     *            every OMDb lookup the handler makes
+     */
+    SpeechletResponse handle(Intent intent, Session session, Deadline deadline) throws SpeechletException;
+}
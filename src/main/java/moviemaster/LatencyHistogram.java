@@ -0,0 +1,88 @@
+package moviemaster;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power-of-two buckets in microseconds.
+ * Bucket {@code i} counts latencies below {@code 2^i} microseconds, so
+ * percentiles are accurate to within a factor of two, which is enough to
+ * tell a cache hit from an OMDb call. Recording is one atomic increment per
+ * bucket plus two adders, and never blocks.
+ */
+public class LatencyHistogram {
+
+    /** The last bucket also takes everything above 2^30 microseconds, about 18 minutes. */
+    static final int BUCKETS = 31;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void record(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(nanos, 0L));
+        buckets.incrementAndGet(bucketOf(micros));
+        count.increment();
+        totalMicros.add(micros);
+        long max = maxMicros.get();
+        while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+            max = maxMicros.get();
+        }
+    }
+
+    static int bucketOf(long micros) {
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+    }
+
+    /** Upper bound of the bucket in microseconds. */
+    static long bucketLimitMicros(int bucket) {
+        return 1L << bucket;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    long getBucketCount(int bucket) {
+        return buckets.get(bucket);
+    }
+
+    public double getMeanMillis() {
+        long samples = count.sum();
+        return (samples == 0) ? 0d : totalMicros.sum() / 1000d / samples;
+    }
+
+    public double getMaxMillis() {
+        return maxMicros.get() / 1000d;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile, in milliseconds.
+     *
+     * @param percentile between 0 and 100
+     */
+    public double getPercentileMillis(double percentile) {
+        long samples = count.sum();
+        if (samples == 0) {
+            return 0d;
+        }
+        long rank = (long) Math.ceil(samples * percentile / 100d);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketLimitMicros(i), maxMicros.get()) / 1000d;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, mean=%.2fms, p50=%.2fms, p99=%.2fms, max=%.2fms", getCount(),
+                getMeanMillis(), getPercentileMillis(50), getPercentileMillis(99), getMaxMillis());
+    }
+}
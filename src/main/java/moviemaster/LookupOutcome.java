@@ -0,0 +1,26 @@
+package moviemaster;
+
+/**
+ * How a movie lookup ended. Each outcome gets its own counter and its own
+ * answer to the user.
+ */
+public enum LookupOutcome {
+
+    /** OMDb (or the record cache) returned the movie. */
+    FOUND,
+
+    /** A stale cached record was served while OMDb was slow, failing or being refreshed. */
+    STALE,
+
+    /** OMDb does not know the title. */
+    NOT_FOUND,
+
+    /** OMDb did not answer within the request's latency budget. */
+    TIMEOUT,
+
+    /** OMDb was not called because the circuit breaker is open. */
+    CIRCUIT_OPEN,
+
+    /** OMDb failed for any other reason. */
+    ERROR
+}
@@ -0,0 +1,25 @@
+package moviemaster;
+
+/**
+ * Thrown when a movie lookup ends without a record. The outcome tells the
+ * handlers whether the title is unknown or OMDb could not be reached.
+ */
+public class MovieLookupException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final LookupOutcome outcome;
+
+    public MovieLookupException(LookupOutcome outcome, String message) {
+        this(outcome, message, null);
+    }
+
+    public MovieLookupException(LookupOutcome outcome, String message, Throwable cause) {
+        super(message, cause);
+        this.outcome = outcome;
+    }
+
+    public LookupOutcome getOutcome() {
+        return outcome;
+    }
+}
@@ -0,0 +1,675 @@
+package moviemaster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.yamj.api.common.exception.ApiExceptionType;
+
+import com.omertron.omdbapi.OMDBException;
+import com.omertron.omdbapi.OmdbApi;
+import com.omertron.omdbapi.model.OmdbVideoBasic;
+import com.omertron.omdbapi.model.OmdbVideoFull;
+import com.omertron.omdbapi.model.SearchResults;
+import com.omertron.omdbapi.tools.OmdbBuilder;
+
+/**
+ * All OMDb access of the speechlet. Lookups go through the record cache,
+ * concurrent lookups of the same key share one upstream call, and every
+ * upstream call runs on its own thread so the caller can stop waiting when
+ * the request's deadline passes.
+ *
+ * <p>Stale cached records are served immediately while a background call
+ * refreshes them. A circuit breaker stops calling OMDb while it is failing.
+ *
+ * <p>Spoken titles are first resolved through the {@link TitleIndex}; titles
+ * it knows exactly are then fetched by imdbID instead of by the raw title.
+ * Only when OMDb does not find a title is its closest fuzzy match fetched.
+ * Every movie fetched also goes into the {@link PersonIndex} of its director
+ * and actors.
+ *
+ * <p>Every lookup also has a non-blocking variant returning a
+ * {@link CompletableFuture}, for handlers that start several lookups and
+ * wait for them together.
+ */
+public class MovieLookupService {
+
+    private static final Logger log = LoggerFactory.getLogger(MovieLookupService.class);
+
+    public static final int MAX_UPSTREAM_THREADS = 32;
+
+    /**
+     * Set to {@code true} to run upstream calls on virtual threads where the
+     * JVM has them. The number of concurrent calls is then not capped by
+     * {@link #MAX_UPSTREAM_THREADS}, which suits the long-running server.
+     */
+    public static final String VIRTUAL_THREADS_PROPERTY = "moviemaster.virtualThreads";
+
+    /** Prefetches run on their own few threads so they never crowd out request lookups. */
+    public static final int PREFETCH_THREADS = 3;
+
+    public static final int PREFETCH_QUEUE_SIZE = 30;
+
+    public static final long PREFETCH_BUDGET_MILLIS = 5000L;
+
+    static final String GET_INFO_METRIC = "Omdb.getInfo";
+
+    static final String SEARCH_METRIC = "Omdb.search";
+
+    private static final String[] GET_INFO_OUTCOME_METRICS = outcomeMetrics(GET_INFO_METRIC);
+
+    private static final String[] SEARCH_OUTCOME_METRICS = outcomeMetrics(SEARCH_METRIC);
+
+    /**
+     * An OMDb call slower than this counts as a failure for the circuit
+     * breaker even if it answers, as its requests have timed out by then.
+     */
+    public static final long SLOW_CALL_MILLIS = 2500L;
+
+    /** Cache key prefix of records looked up by imdbID rather than title. */
+    private static final String IMDB_ID_KEY_PREFIX = "imdb:";
+
+    private final Supplier<OmdbApi> omdbFactory;
+
+    private volatile OmdbApi omdb;
+
+    private final MovieRecordCache movieCache;
+
+    private final CircuitBreaker circuitBreaker;
+
+    private final TitleIndex titleIndex;
+
+    private final PersonIndex personIndex = new PersonIndex();
+
+    private final ExecutorService upstreamExecutor;
+
+    private final ExecutorService prefetchExecutor;
+
+    /** Fails the futures of the non-blocking lookups when their deadline passes. */
+    private final ScheduledExecutorService deadlineTimer;
+
+    private final SingleFlight<String, OmdbVideoFull> infoRequests = new SingleFlight<String, OmdbVideoFull>();
+
+    private final SingleFlight<String, SearchResults> searchRequests = new SingleFlight<String, SearchResults>();
+
+    private final AtomicLongArray outcomes = new AtomicLongArray(LookupOutcome.values().length);
+
+    private final SkillMetrics metrics;
+
+    public MovieLookupService(Supplier<OmdbApi> omdbFactory) {
+        this(omdbFactory, new SkillMetrics());
+    }
+
+    public MovieLookupService(Supplier<OmdbApi> omdbFactory, SkillMetrics metrics) {
+        this(omdbFactory, new MovieRecordCache(), new CircuitBreaker(), TitleIndex.withSeedTitles(), metrics);
+    }
+
+    public MovieLookupService(Supplier<OmdbApi> omdbFactory, MovieRecordCache movieCache,
+            CircuitBreaker circuitBreaker, TitleIndex titleIndex) {
+        this(omdbFactory, movieCache, circuitBreaker, titleIndex, new SkillMetrics());
+    }
+
+    /**
+     * @param metrics receives the latency and outcome of every OMDb call, and
+     *            reports the cache and lookup counters on each flush
+     */
+    public MovieLookupService(Supplier<OmdbApi> omdbFactory, MovieRecordCache movieCache,
+            CircuitBreaker circuitBreaker, TitleIndex titleIndex, SkillMetrics metrics) {
+        this.omdbFactory = omdbFactory;
+        this.omdb = omdbFactory.get();
+        this.movieCache = movieCache;
+        this.circuitBreaker = circuitBreaker;
+        this.titleIndex = titleIndex;
+        this.upstreamExecutor = newUpstreamExecutor();
+        this.prefetchExecutor = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(PREFETCH_QUEUE_SIZE), new UpstreamThreadFactory("omdb-prefetch-"));
+        ((ThreadPoolExecutor) this.prefetchExecutor).allowCoreThreadTimeOut(true);
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+                new UpstreamThreadFactory("omdb-deadline-"));
+        timer.setRemoveOnCancelPolicy(true);
+        this.deadlineTimer = timer;
+        this.metrics = metrics;
+        registerCounters();
+    }
+
+    private static ExecutorService newUpstreamExecutor() {
+        if (Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY)) {
+            ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("omdb-lookup-");
+            if (executor != null) {
+                return executor;
+            }
+            log.warn("Virtual threads are not available, upstream calls use at most {} threads",
+                    MAX_UPSTREAM_THREADS);
+        }
+        return new ThreadPoolExecutor(0, MAX_UPSTREAM_THREADS, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new UpstreamThreadFactory("omdb-lookup-"));
+    }
+
+    private void registerCounters() {
+        metrics.registerCounter("Cache.hits", movieCache::getHits);
+        metrics.registerCounter("Cache.staleHits", movieCache::getStaleHits);
+        metrics.registerCounter("Cache.misses", movieCache::getMisses);
+        metrics.registerCounter("Cache.evictions", movieCache::getEvictions);
+        metrics.registerCounter("Omdb.coalesced",
+                () -> infoRequests.getCoalescedCalls() + searchRequests.getCoalescedCalls());
+        metrics.registerCounter("Omdb.circuitTrips", circuitBreaker::getTrips);
+        for (final LookupOutcome outcome : LookupOutcome.values()) {
+            metrics.registerCounter("Lookup." + outcome, () -> getOutcomeCount(outcome));
+        }
+    }
+
+    private static String[] outcomeMetrics(String operation) {
+        String[] names = new String[LookupOutcome.values().length];
+        for (LookupOutcome outcome : LookupOutcome.values()) {
+            names[outcome.ordinal()] = operation + "." + outcome;
+        }
+        return names;
+    }
+
+    /**
+     * Replaces the OMDb client so that no connection opened before a
+     * checkpoint is used after the restore.
+     */
+    public void reopenConnections() {
+        omdb = omdbFactory.get();
+    }
+
+    /**
+     * Resolves what the user said through the title index and looks the movie
+     * up by imdbID when the index knows the title exactly, by title otherwise.
+     * If OMDb does not know the title either, the closest fuzzy match of the
+     * index is looked up instead.
+     */
+    public OmdbVideoFull resolveMovieInfo(String spokenTitle, boolean tomatoes, Deadline deadline)
+            throws MovieLookupException {
+        TitleIndex.Match match = titleIndex.resolveExact(spokenTitle);
+        if (match != null) {
+            return getMovieInfoById(match.getImdbID(), tomatoes, deadline);
+        }
+        try {
+            return getMovieInfo(spokenTitle, tomatoes, deadline);
+        } catch (MovieLookupException e) {
+            TitleIndex.Match fuzzy = fuzzyMatchAfter(e, spokenTitle);
+            if (fuzzy == null) {
+                throw e;
+            }
+            return getMovieInfoById(fuzzy.getImdbID(), tomatoes, deadline);
+        }
+    }
+
+    /**
+     * Non-blocking {@link #resolveMovieInfo}. The future fails with a
+     * {@link MovieLookupException}, at the latest with a timeout once the
+     * deadline has passed.
+     */
+    public CompletableFuture<OmdbVideoFull> resolveMovieInfoAsync(String spokenTitle, boolean tomatoes,
+            Deadline deadline) {
+        TitleIndex.Match match = titleIndex.resolveExact(spokenTitle);
+        if (match != null) {
+            return getMovieInfoByIdAsync(match.getImdbID(), tomatoes, deadline);
+        }
+        return getMovieInfoAsync(spokenTitle, tomatoes, deadline).handle((video, failure) -> {
+            if (failure == null) {
+                return CompletableFuture.completedFuture(video);
+            }
+            Throwable cause = (failure instanceof CompletionException && failure.getCause() != null)
+                    ? failure.getCause() : failure;
+            TitleIndex.Match fuzzy = (cause instanceof MovieLookupException)
+                    ? fuzzyMatchAfter((MovieLookupException) cause, spokenTitle) : null;
+            return (fuzzy != null) ? getMovieInfoByIdAsync(fuzzy.getImdbID(), tomatoes, deadline)
+                    : MovieLookupService.<OmdbVideoFull> failedFuture(cause);
+        }).thenCompose(lookup -> lookup);
+    }
+
+    /**
+     * @return the index's closest match for a title OMDb did not find, or
+     *         null if the lookup failed otherwise or nothing is close enough
+     */
+    private TitleIndex.Match fuzzyMatchAfter(MovieLookupException e, String spokenTitle) {
+        if (e.getOutcome() != LookupOutcome.NOT_FOUND) {
+            return null;
+        }
+        TitleIndex.Match match = titleIndex.resolveFuzzy(spokenTitle);
+        if (match != null) {
+            log.debug("OMDb did not find {}, trying {} ({}, score {})", spokenTitle, match.getTitle(),
+                    match.getImdbID(), match.getScore());
+        }
+        return match;
+    }
+
+    public OmdbVideoFull getMovieInfo(String movieTitle, boolean tomatoes, Deadline deadline)
+            throws MovieLookupException {
+        return lookup(movieTitle, null, tomatoes, deadline);
+    }
+
+    public OmdbVideoFull getMovieInfoById(String imdbID, boolean tomatoes, Deadline deadline)
+            throws MovieLookupException {
+        return lookup(IMDB_ID_KEY_PREFIX + imdbID, imdbID, tomatoes, deadline);
+    }
+
+    public CompletableFuture<OmdbVideoFull> getMovieInfoAsync(String movieTitle, boolean tomatoes,
+            Deadline deadline) {
+        return lookupAsync(movieTitle, null, tomatoes, deadline);
+    }
+
+    public CompletableFuture<OmdbVideoFull> getMovieInfoByIdAsync(String imdbID, boolean tomatoes,
+            Deadline deadline) {
+        return lookupAsync(IMDB_ID_KEY_PREFIX + imdbID, imdbID, tomatoes, deadline);
+    }
+
+    /**
+     * Looks the record up in the record cache before going to OMDb. Titles OMDb
+     * does not know are remembered as well, so repeated misses stay local.
+     *
+     * @param cacheTitle title, or prefixed imdbID, the record is cached under
+     * @param imdbID imdbID to ask OMDb for, or null to ask by title
+     */
+    private OmdbVideoFull lookup(String cacheTitle, String imdbID, boolean tomatoes, Deadline deadline)
+            throws MovieLookupException {
+        OmdbVideoFull cached = cachedMovieInfo(cacheTitle, imdbID, tomatoes);
+        if (cached != null) {
+            return cached;
+        }
+        if (!circuitBreaker.allowRequest()) {
+            throw failure(LookupOutcome.CIRCUIT_OPEN, "OMDb circuit is open", null);
+        }
+        OmdbVideoFull result = await(requestMovieInfo(cacheTitle, imdbID, tomatoes), deadline, cacheTitle,
+                GET_INFO_OUTCOME_METRICS);
+        log.debug("getMovieInfo title={}, {}", cacheTitle, this);
+        return result;
+    }
+
+    private CompletableFuture<OmdbVideoFull> lookupAsync(String cacheTitle, String imdbID, boolean tomatoes,
+            Deadline deadline) {
+        try {
+            OmdbVideoFull cached = cachedMovieInfo(cacheTitle, imdbID, tomatoes);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+            if (!circuitBreaker.allowRequest()) {
+                throw failure(LookupOutcome.CIRCUIT_OPEN, "OMDb circuit is open", null);
+            }
+        } catch (MovieLookupException e) {
+            return failedFuture(e);
+        }
+        return within(requestMovieInfo(cacheTitle, imdbID, tomatoes), deadline, cacheTitle,
+                GET_INFO_OUTCOME_METRICS);
+    }
+
+    /**
+     * @return the cached record, refreshed in the background when it is
+     *         stale, or null when OMDb has to be asked
+     * @throws MovieLookupException if OMDb is known not to have the movie
+     */
+    private OmdbVideoFull cachedMovieInfo(String cacheTitle, String imdbID, boolean tomatoes)
+            throws MovieLookupException {
+        MovieRecordCache.Entry cached = movieCache.get(cacheTitle, tomatoes);
+        if (cached != null && !cached.isStale()) {
+            if (cached.isNotFound()) {
+                throw failure(LookupOutcome.NOT_FOUND, "Movie not found: " + cacheTitle, null);
+            }
+            outcomes.incrementAndGet(LookupOutcome.FOUND.ordinal());
+            return cached.getVideo();
+        }
+        if (cached != null) {
+            if (circuitBreaker.allowRequest()) {
+                requestMovieInfo(cacheTitle, imdbID, tomatoes);
+            }
+            outcomes.incrementAndGet(LookupOutcome.STALE.ordinal());
+            return cached.getVideo();
+        }
+        return null;
+    }
+
+    public SearchResults searchMovies(final String searchTerm, Deadline deadline) throws MovieLookupException {
+        if (!circuitBreaker.allowRequest()) {
+            throw failure(LookupOutcome.CIRCUIT_OPEN, "OMDb circuit is open", null);
+        }
+        return await(requestSearchResults(searchTerm), deadline, searchTerm, SEARCH_OUTCOME_METRICS);
+    }
+
+    /** Non-blocking {@link #searchMovies}. */
+    public CompletableFuture<SearchResults> searchMoviesAsync(String searchTerm, Deadline deadline) {
+        if (!circuitBreaker.allowRequest()) {
+            return failedFuture(failure(LookupOutcome.CIRCUIT_OPEN, "OMDb circuit is open", null));
+        }
+        return within(requestSearchResults(searchTerm), deadline, searchTerm, SEARCH_OUTCOME_METRICS);
+    }
+
+    /**
+     * Fetches the movies into the record cache in the background, at most
+     * {@link #PREFETCH_THREADS} at a time and within
+     * {@link #PREFETCH_BUDGET_MILLIS}. Their titles go into the title index
+     * right away, so a follow-up about one of them is looked up by imdbID and
+     * hits the cache once the prefetch is done.
+     */
+    public Prefetch prefetch(List<OmdbVideoBasic> movies) {
+        final Deadline deadline = Deadline.after(PREFETCH_BUDGET_MILLIS);
+        List<CompletableFuture<Void>> tasks = new ArrayList<CompletableFuture<Void>>();
+        for (OmdbVideoBasic movie : movies) {
+            final String imdbID = movie.getImdbID();
+            if (imdbID == null) {
+                continue;
+            }
+            titleIndex.register(movie.getTitle(), imdbID);
+            try {
+                tasks.add(CompletableFuture.runAsync(() -> prefetchMovieInfo(imdbID, deadline), prefetchExecutor));
+            } catch (RejectedExecutionException e) {
+                log.debug("Prefetch queue is full, skipping {}", imdbID);
+            }
+        }
+        return new Prefetch(tasks);
+    }
+
+    public long getOutcomeCount(LookupOutcome outcome) {
+        return outcomes.get(outcome.ordinal());
+    }
+
+    public MovieRecordCache getMovieCache() {
+        return movieCache;
+    }
+
+    public SkillMetrics getMetrics() {
+        return metrics;
+    }
+
+    public TitleIndex getTitleIndex() {
+        return titleIndex;
+    }
+
+    public PersonIndex getPersonIndex() {
+        return personIndex;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public SingleFlight<String, OmdbVideoFull> getInfoRequests() {
+        return infoRequests;
+    }
+
+    public SingleFlight<String, SearchResults> getSearchRequests() {
+        return searchRequests;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("MovieLookupService[outcomes={");
+        for (LookupOutcome outcome : LookupOutcome.values()) {
+            builder.append(outcome).append('=').append(outcomes.get(outcome.ordinal())).append(' ');
+        }
+        return builder.append("}, ").append(movieCache).append(", info=").append(infoRequests)
+                .append(", search=").append(searchRequests).append(", ").append(circuitBreaker).append(']')
+                .toString();
+    }
+
+    private void prefetchMovieInfo(String imdbID, Deadline deadline) {
+        if (deadline.isExpired()) {
+            return;
+        }
+        try {
+            getMovieInfoById(imdbID, false, deadline);
+        } catch (MovieLookupException e) {
+            log.debug("Prefetch of {} ended with {}", imdbID, e.getOutcome());
+        }
+    }
+
+    private CompletableFuture<OmdbVideoFull> requestMovieInfo(final String cacheTitle, final String imdbID,
+            final boolean tomatoes) {
+        return infoRequests.execute(MovieRecordCache.key(cacheTitle, tomatoes),
+                () -> callUpstream(() -> fetchMovieInfo(cacheTitle, imdbID, tomatoes)));
+    }
+
+    private CompletableFuture<SearchResults> requestSearchResults(final String searchTerm) {
+        return searchRequests.execute(MovieRecordCache.key(searchTerm, false),
+                () -> callUpstream(() -> fetchSearchResults(searchTerm)));
+    }
+
+    /**
+     * Runs the OMDb call on the upstream executor and records its outcome in
+     * the circuit breaker once, when the call completes, however many
+     * requests share it. A call the executor rejects counts as a failure, so
+     * the trial call of a half-open breaker is never lost.
+     */
+    private <V> CompletableFuture<V> callUpstream(Supplier<V> call) {
+        final long start = System.nanoTime();
+        CompletableFuture<V> upstream;
+        try {
+            upstream = CompletableFuture.supplyAsync(call, upstreamExecutor);
+        } catch (RejectedExecutionException e) {
+            circuitBreaker.recordFailure();
+            return failedFuture(new MovieLookupException(LookupOutcome.ERROR, "No thread left for an OMDb call", e));
+        }
+        upstream.whenComplete((value, failure) -> {
+            Throwable cause = failure;
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            boolean failed = cause != null && !(cause instanceof MovieLookupException
+                    && ((MovieLookupException) cause).getOutcome() == LookupOutcome.NOT_FOUND);
+            if (failed || System.nanoTime() - start > TimeUnit.MILLISECONDS.toNanos(SLOW_CALL_MILLIS)) {
+                circuitBreaker.recordFailure();
+            } else {
+                circuitBreaker.recordSuccess();
+            }
+        });
+        return upstream;
+    }
+
+    /**
+     * Calls OMDb and records the outcome in the record cache. Runs once per
+     * cache key however many requests are waiting for it. Found movies are
+     * cached under their imdbID as well and added to the title index,
+     * together with the title they were asked for.
+     */
+    private OmdbVideoFull fetchMovieInfo(String cacheTitle, String imdbID, boolean tomatoes) {
+        OmdbBuilder builder = (imdbID != null) ? new OmdbBuilder().setImdbId(imdbID)
+                : new OmdbBuilder().setTitle(cacheTitle);
+        if (tomatoes) {
+            builder.setTomatoesOn();
+        }
+        OmdbVideoFull result;
+        long start = System.nanoTime();
+        try {
+            result = omdb.getInfo(builder.build());
+        } catch (OMDBException e) {
+            recordUpstreamCall(GET_INFO_METRIC, GET_INFO_OUTCOME_METRICS, start, e);
+            if (e.getExceptionType() == ApiExceptionType.ID_NOT_FOUND) {
+                movieCache.putNotFound(cacheTitle, tomatoes);
+                throw new CompletionException(new MovieLookupException(LookupOutcome.NOT_FOUND, e.getMessage(), e));
+            }
+            throw new CompletionException(new MovieLookupException(LookupOutcome.ERROR, e.getMessage(), e));
+        } catch (RuntimeException e) {
+            recordUpstreamCall(GET_INFO_METRIC, GET_INFO_OUTCOME_METRICS, start, e);
+            throw new CompletionException(new MovieLookupException(LookupOutcome.ERROR, e.getMessage(), e));
+        }
+        if (result == null || !result.isResponse()) {
+            recordUpstreamCall(GET_INFO_METRIC, GET_INFO_OUTCOME_METRICS, start, LookupOutcome.NOT_FOUND);
+            movieCache.putNotFound(cacheTitle, tomatoes);
+            throw new CompletionException(
+                    new MovieLookupException(LookupOutcome.NOT_FOUND, "Movie not found: " + cacheTitle));
+        }
+        recordUpstreamCall(GET_INFO_METRIC, GET_INFO_OUTCOME_METRICS, start, LookupOutcome.FOUND);
+        movieCache.put(cacheTitle, tomatoes, result);
+        if (result.getImdbID() != null) {
+            movieCache.put(IMDB_ID_KEY_PREFIX + result.getImdbID(), tomatoes, result);
+            titleIndex.register(result.getTitle(), result.getImdbID());
+            if (imdbID == null) {
+                titleIndex.register(cacheTitle, result.getImdbID());
+            }
+            personIndex.register(result);
+        }
+        return result;
+    }
+
+    private SearchResults fetchSearchResults(String searchTerm) {
+        long start = System.nanoTime();
+        try {
+            SearchResults results = omdb.search(new OmdbBuilder().setSearchTerm(searchTerm).build());
+            recordUpstreamCall(SEARCH_METRIC, SEARCH_OUTCOME_METRICS, start, LookupOutcome.FOUND);
+            return results;
+        } catch (OMDBException e) {
+            recordUpstreamCall(SEARCH_METRIC, SEARCH_OUTCOME_METRICS, start, e);
+            if (e.getExceptionType() == ApiExceptionType.ID_NOT_FOUND) {
+                throw new CompletionException(new MovieLookupException(LookupOutcome.NOT_FOUND, e.getMessage(), e));
+            }
+            throw new CompletionException(new MovieLookupException(LookupOutcome.ERROR, e.getMessage(), e));
+        } catch (RuntimeException e) {
+            recordUpstreamCall(SEARCH_METRIC, SEARCH_OUTCOME_METRICS, start, e);
+            throw new CompletionException(new MovieLookupException(LookupOutcome.ERROR, e.getMessage(), e));
+        }
+    }
+
+    private void recordUpstreamCall(String operation, String[] outcomeMetrics, long start, Exception failure) {
+        boolean notFound = (failure instanceof OMDBException)
+                && ((OMDBException) failure).getExceptionType() == ApiExceptionType.ID_NOT_FOUND;
+        recordUpstreamCall(operation, outcomeMetrics, start, notFound ? LookupOutcome.NOT_FOUND : LookupOutcome.ERROR);
+    }
+
+    private void recordUpstreamCall(String operation, String[] outcomeMetrics, long start, LookupOutcome outcome) {
+        metrics.recordLatency(operation, System.nanoTime() - start);
+        metrics.increment(outcomeMetrics[outcome.ordinal()]);
+    }
+
+    /**
+     * @param outcomeMetrics counters of the OMDb operation, a timeout is
+     *            counted here since the upstream call itself never sees it
+     */
+    private <V> V await(CompletableFuture<V> flight, Deadline deadline, String subject, String[] outcomeMetrics)
+            throws MovieLookupException {
+        try {
+            V value = flight.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+            outcomes.incrementAndGet(LookupOutcome.FOUND.ordinal());
+            return value;
+        } catch (TimeoutException e) {
+            metrics.increment(outcomeMetrics[LookupOutcome.TIMEOUT.ordinal()]);
+            throw failure(LookupOutcome.TIMEOUT, "OMDb did not answer in time for " + subject, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof MovieLookupException) {
+                MovieLookupException lookupException = (MovieLookupException) cause;
+                throw failure(lookupException.getOutcome(), lookupException.getMessage(), cause);
+            }
+            throw failure(LookupOutcome.ERROR, "OMDb lookup failed for " + subject, cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw failure(LookupOutcome.ERROR, "Interrupted while waiting for OMDb", e);
+        }
+    }
+
+    /**
+     * Non-blocking {@link #await}: the returned future takes the flight's
+     * result, or fails with a timeout when the deadline passes first. The
+     * flight itself goes on for the other callers and the cache.
+     */
+    private <V> CompletableFuture<V> within(CompletableFuture<V> flight, Deadline deadline, final String subject,
+            final String[] outcomeMetrics) {
+        final CompletableFuture<V> result = new CompletableFuture<V>();
+        final ScheduledFuture<?> timeout = deadlineTimer.schedule(() -> {
+            if (result.completeExceptionally(new MovieLookupException(LookupOutcome.TIMEOUT,
+                    "OMDb did not answer in time for " + subject))) {
+                outcomes.incrementAndGet(LookupOutcome.TIMEOUT.ordinal());
+                metrics.increment(outcomeMetrics[LookupOutcome.TIMEOUT.ordinal()]);
+            }
+        }, deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+        flight.whenComplete((value, failure) -> {
+            timeout.cancel(false);
+            if (failure == null) {
+                if (result.complete(value)) {
+                    outcomes.incrementAndGet(LookupOutcome.FOUND.ordinal());
+                }
+                return;
+            }
+            Throwable cause = failure;
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            MovieLookupException lookupException = (cause instanceof MovieLookupException)
+                    ? (MovieLookupException) cause
+                    : new MovieLookupException(LookupOutcome.ERROR, "OMDb lookup failed for " + subject, cause);
+            if (result.completeExceptionally(lookupException)) {
+                outcomes.incrementAndGet(lookupException.getOutcome().ordinal());
+            }
+        });
+        return result;
+    }
+
+    private static <V> CompletableFuture<V> failedFuture(Throwable failure) {
+        CompletableFuture<V> future = new CompletableFuture<V>();
+        future.completeExceptionally(failure);
+        return future;
+    }
+
+    private MovieLookupException failure(LookupOutcome outcome, String message, Throwable cause) {
+        outcomes.incrementAndGet(outcome.ordinal());
+        return new MovieLookupException(outcome, message, cause);
+    }
+
+    /**
+     * Handle on a background prefetch, used to cancel what has not run yet.
+     */
+    public static final class Prefetch {
+
+        private final List<CompletableFuture<Void>> tasks;
+        private final CompletableFuture<Void> done;
+
+        Prefetch(List<CompletableFuture<Void>> tasks) {
+            this.tasks = tasks;
+            this.done = CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[tasks.size()]));
+        }
+
+        public void cancel() {
+            for (CompletableFuture<Void> task : tasks) {
+                task.cancel(false);
+            }
+        }
+
+        public boolean isDone() {
+            return done.isDone();
+        }
+
+        /** Runs the action once every prefetch has finished or was cancelled. */
+        public void whenDone(Runnable action) {
+            done.whenComplete((ignored, failure) -> action.run());
+        }
+    }
+
+    private static final class UpstreamThreadFactory implements ThreadFactory {
+
+        private final String namePrefix;
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        UpstreamThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, namePrefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package moviemaster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import org.crac.Context;
+import org.crac.Core;
+import org.crac.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+
+/**
+ * Moves the one-off costs of the first request into the init phase. Priming
+ * loads and warms the Jackson and Alexa SDK serializers by running synthetic
+ * requests through the handler, initializes TLS and touches the formatter and
+ * regex constants the handlers use. The people of the record store's movies
+ * are indexed here as well, whether priming is on or not.
+ *
+ * <p>For snapshot-and-restore runtimes (CRaC, Lambda SnapStart) the priming is
+ * repeated before the checkpoint and the OMDb connections are re-opened after
+ * the restore. Priming is on by default and can be switched off with the
+ * {@code moviemaster.prime} system property or the {@code MOVIEMASTER_PRIME}
+ * environment variable set to {@code false}.
+ */
+public final class MovieMasterBootstrap {
+
+    private static final Logger log = LoggerFactory.getLogger(MovieMasterBootstrap.class);
+
+    static final String PRIME_PROPERTY = "moviemaster.prime";
+    static final String PRIME_ENV = "MOVIEMASTER_PRIME";
+
+    private static final String SAMPLE_RELEASE_DATE = "24 Mar 1972";
+    private static final String SAMPLE_ACTORS = "Marlon Brando, Al Pacino, James Caan";
+
+    /** CRaC only keeps weak references to registered resources. */
+    private static volatile Resource checkpointHook;
+
+    private MovieMasterBootstrap() {
+    }
+
+    /**
+     * Called once from the handler constructor, which runs in the init phase.
+     */
+    public static void initialize(RequestStreamHandler handler, MovieMasterSpeechlet speechlet) {
+        speechlet.indexStoredPeople();
+        if (isPrimingEnabled()) {
+            prime(handler);
+            speechlet.getMetrics().resetInterval();
+        }
+        registerCheckpointHook(handler, speechlet);
+    }
+
+    public static boolean isPrimingEnabled() {
+        String value = System.getProperty(PRIME_PROPERTY, System.getenv(PRIME_ENV));
+        return value == null || Boolean.parseBoolean(value);
+    }
+
+    /**
+     * Runs a launch request and a help intent through the handler. Neither
+     * calls OMDb, so priming never depends on the network.
+     */
+    public static void prime(RequestStreamHandler handler) {
+        long start = System.nanoTime();
+        try {
+            warmStaticState();
+            invoke(handler, launchRequest());
+            invoke(handler, intentRequest("AMAZON.HelpIntent"));
+        } catch (Exception e) {
+            log.warn("Priming failed, the first request will pay the class loading cost", e);
+            return;
+        }
+        log.info("Primed in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private static void warmStaticState() throws Exception {
+        LocalDate.parse(SAMPLE_RELEASE_DATE, MovieSummary.RELEASE_DATE_FORMAT);
+        MovieMasterSpeechlet.ACTOR_SEPARATOR.split(SAMPLE_ACTORS);
+        MovieMasterSpeechlet.SLOT_PUNCTUATION.matcher("the god father.").replaceAll("");
+        SSLContext.getDefault();
+    }
+
+    private static void invoke(RequestStreamHandler handler, String envelope) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        handler.handleRequest(new ByteArrayInputStream(envelope.getBytes(StandardCharsets.UTF_8)), output, null);
+    }
+
+    private static String launchRequest() {
+        return envelope("{\"type\":\"LaunchRequest\",\"requestId\":\"MovieMasterPrime.launch\",\"timestamp\":\""
+                + timestamp() + "\"}");
+    }
+
+    private static String intentRequest(String intentName) {
+        return envelope("{\"type\":\"IntentRequest\",\"requestId\":\"MovieMasterPrime.intent\",\"timestamp\":\""
+                + timestamp() + "\",\"intent\":{\"name\":\"" + intentName + "\",\"slots\":{}}}");
+    }
+
+    private static String envelope(String request) {
+        return "{\"version\":\"1.0\",\"session\":{\"new\":true,\"sessionId\":\"MovieMasterPrime.session\","
+                + "\"application\":{\"applicationId\":\"" + MovieMasterSpeechletRequestStreamHandler.APPLICATION_ID
+                + "\"},\"attributes\":{},\"user\":{\"userId\":\"MovieMasterPrime.user\"}},\"request\":" + request + "}";
+    }
+
+    private static String timestamp() {
+        return Instant.now().truncatedTo(ChronoUnit.SECONDS).toString();
+    }
+
+    private static void registerCheckpointHook(final RequestStreamHandler handler,
+            final MovieMasterSpeechlet speechlet) {
+        Resource hook = new Resource() {
+            @Override
+            public void beforeCheckpoint(Context<? extends Resource> context) throws Exception {
+                if (isPrimingEnabled()) {
+                    prime(handler);
+                    speechlet.getMetrics().resetInterval();
+                }
+            }
+
+            @Override
+            public void afterRestore(Context<? extends Resource> context) throws Exception {
+                speechlet.reopenConnections();
+                log.info("Re-opened OMDb connections after restore");
+            }
+        };
+        try {
+            Core.getGlobalContext().register(hook);
+            checkpointHook = hook;
+        } catch (RuntimeException | LinkageError e) {
+            log.debug("Checkpoint hooks not available", e);
+        }
+    }
+}
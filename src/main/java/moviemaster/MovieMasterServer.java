@@ -0,0 +1,300 @@
+package moviemaster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazon.speech.Sdk;
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.authentication.SpeechletRequestSignatureVerifier;
+import com.amazon.speech.speechlet.verifier.TimestampSpeechletRequestVerifier;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+/**
+ * Hosts the skill as a long-running HTTPS endpoint instead of a Lambda
+ * function. The caches, the title index and the OMDb connections then stay
+ * warm across all traffic, and there are no cold starts.
+ *
+ * <p>Every request runs on its own virtual thread where the JVM has them, and
+ * so do the upstream OMDb calls, see
+ * {@link MovieLookupService#VIRTUAL_THREADS_PROPERTY}. A blocked OMDb call
+ * then costs no platform thread. At most {@code maxInFlight} requests are
+ * handled at a time. Beyond that the server answers 503 right away rather
+ * than queueing requests that would miss Alexa's timeout anyway.
+ *
+ * <p>Requests are checked like the SDK's servlet does: the signature and its
+ * certificate chain first, then the timestamp, which must be within
+ * {@link #TIMESTAMP_TOLERANCE_SECONDS} of now. That bounds how long a
+ * captured request can be replayed; a replay within the tolerance is not
+ * detected. The application id is checked by the
+ * {@link MovieMasterSpeechletRequestStreamHandler}. The tolerance can be
+ * changed with the SDK's {@value Sdk#TIMESTAMP_TOLERANCE_SYSTEM_PROPERTY}
+ * property, and the signature check can be turned off for load tests with
+ * {@value Sdk#DISABLE_REQUEST_SIGNATURE_CHECK_SYSTEM_PROPERTY}.
+ */
+public class MovieMasterServer {
+
+    private static final Logger log = LoggerFactory.getLogger(MovieMasterServer.class);
+
+    private static final Logger metricsLog = LoggerFactory.getLogger("moviemaster.metrics");
+
+    public static final String PORT_PROPERTY = "moviemaster.server.port";
+    public static final String KEYSTORE_PROPERTY = "moviemaster.server.keystore";
+    public static final String KEYSTORE_PASSWORD_PROPERTY = "moviemaster.server.keystorePassword";
+    public static final String MAX_IN_FLIGHT_PROPERTY = "moviemaster.server.maxInFlight";
+    public static final String SHUTDOWN_GRACE_PROPERTY = "moviemaster.server.shutdownGraceSeconds";
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 2000;
+
+    /** Alexa's limit on the age of a request, as used by the SDK's servlet. */
+    public static final long TIMESTAMP_TOLERANCE_SECONDS = 150L;
+
+    static final String REQUEST_METRIC = "Server.request";
+    static final String REJECTED_METRIC = "Server.rejected";
+
+    /** Alexa requests are a few kilobytes. */
+    private static final int MAX_REQUEST_BYTES = 256 * 1024;
+
+    private static final long METRICS_INTERVAL_SECONDS = 60L;
+
+    private final MovieMasterSpeechletRequestStreamHandler handler;
+    private final SkillMetrics metrics;
+    private final HttpServer server;
+    private final ExecutorService requestExecutor;
+    private final ScheduledExecutorService metricsFlusher;
+    private final Semaphore inFlight;
+    private final boolean verifySignatures;
+    private final TimestampSpeechletRequestVerifier timestampVerifier;
+
+    private volatile boolean stopping;
+
+    /**
+     * @param sslContext serves HTTPS with it, or plain HTTP when null for use
+     *            behind a proxy or load balancer that terminates TLS
+     */
+    public MovieMasterServer(MovieMasterSpeechlet speechlet, InetSocketAddress address, SSLContext sslContext,
+            int maxInFlight) throws IOException {
+        this.handler = new MovieMasterSpeechletRequestStreamHandler(speechlet);
+        this.metrics = speechlet.getMetrics();
+        this.inFlight = new Semaphore(maxInFlight);
+        this.verifySignatures = !Boolean.getBoolean(Sdk.DISABLE_REQUEST_SIGNATURE_CHECK_SYSTEM_PROPERTY);
+        this.timestampVerifier = new TimestampSpeechletRequestVerifier(
+                Long.getLong(Sdk.TIMESTAMP_TOLERANCE_SYSTEM_PROPERTY, TIMESTAMP_TOLERANCE_SECONDS), TimeUnit.SECONDS);
+        if (sslContext != null) {
+            HttpsServer httpsServer = HttpsServer.create(address, maxInFlight);
+            httpsServer.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+            this.server = httpsServer;
+        } else {
+            this.server = HttpServer.create(address, maxInFlight);
+        }
+        ExecutorService virtualThreads = VirtualThreads.newThreadPerTaskExecutor("skill-request-");
+        this.requestExecutor = (virtualThreads != null) ? virtualThreads
+                : Executors.newFixedThreadPool(Math.min(maxInFlight, 200), runnable -> {
+                    Thread thread = new Thread(runnable, "skill-request");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        server.setExecutor(requestExecutor);
+        server.createContext("/", this::handle);
+        this.metricsFlusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        server.start();
+        metricsFlusher.scheduleAtFixedRate(this::flushMetrics, METRICS_INTERVAL_SECONDS, METRICS_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+        log.info("Listening on port {}, signature check {}", getPort(), verifySignatures ? "on" : "off");
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops taking requests, waits up to the grace period for the ones in
+     * progress and flushes the metrics one last time.
+     */
+    public void stop(int graceSeconds) {
+        stopping = true;
+        server.stop(graceSeconds);
+        requestExecutor.shutdown();
+        try {
+            requestExecutor.awaitTermination(graceSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        metricsFlusher.shutdownNow();
+        flushMetrics();
+        log.info("Stopped");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if ("/ping".equals(exchange.getRequestURI().getPath())) {
+                respond(exchange, stopping ? 503 : 200, "text/plain", stopping ? "stopping" : "ok");
+                return;
+            }
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "text/plain", "Only POST is supported");
+                return;
+            }
+            if (stopping || !inFlight.tryAcquire()) {
+                metrics.increment(REJECTED_METRIC);
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 503, "text/plain", "Too many requests");
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                handleSpeechletRequest(exchange);
+            } finally {
+                inFlight.release();
+                metrics.recordLatency(REQUEST_METRIC, System.nanoTime() - start);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleSpeechletRequest(HttpExchange exchange) throws IOException {
+        byte[] body = readBody(exchange.getRequestBody());
+        if (body == null) {
+            respond(exchange, 413, "text/plain", "Request too large");
+            return;
+        }
+        if (verifySignatures) {
+            try {
+                SpeechletRequestSignatureVerifier.checkRequestSignature(body,
+                        exchange.getRequestHeaders().getFirst(Sdk.SIGNATURE_REQUEST_HEADER),
+                        exchange.getRequestHeaders().getFirst(Sdk.SIGNATURE_CERTIFICATE_CHAIN_URL_REQUEST_HEADER));
+            } catch (SecurityException e) {
+                log.warn("Rejected a request with an invalid signature: {}", e.getMessage());
+                respond(exchange, 400, "text/plain", "Invalid signature");
+                return;
+            }
+        }
+        if (!hasValidTimestamp(body)) {
+            respond(exchange, 400, "text/plain", "Invalid timestamp");
+            return;
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream(2048);
+        try {
+            handler.handleRequest(new ByteArrayInputStream(body), output, null);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not handle the request", e);
+            respond(exchange, 500, "text/plain", "Could not handle the request");
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, output.size());
+        try (OutputStream response = exchange.getResponseBody()) {
+            output.writeTo(response);
+        }
+    }
+
+    /**
+     * Checks the timestamp of the signed request. The handler parses the
+     * envelope again, which is small next to the signature check.
+     */
+    private boolean hasValidTimestamp(byte[] body) {
+        try {
+            SpeechletRequestEnvelope<?> envelope = SpeechletRequestEnvelope.fromJson(body);
+            if (envelope.getRequest() != null && timestampVerifier.verify(envelope)) {
+                return true;
+            }
+            log.warn("Rejected a request with a missing or expired timestamp");
+        } catch (IOException | RuntimeException e) {
+            log.warn("Rejected a request that could not be parsed: {}", e.getMessage());
+        }
+        return false;
+    }
+
+    /** @return the body, or null if it is larger than {@link #MAX_REQUEST_BYTES} */
+    private static byte[] readBody(InputStream input) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(4096);
+        byte[] buffer = new byte[4096];
+        for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+            if (body.size() + read > MAX_REQUEST_BYTES) {
+                return null;
+            }
+            body.write(buffer, 0, read);
+        }
+        return body.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String text)
+            throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream response = exchange.getResponseBody()) {
+            response.write(bytes);
+        }
+    }
+
+    private void flushMetrics() {
+        String document = metrics.flush(System.currentTimeMillis(), null);
+        if (document != null) {
+            metricsLog.info(document);
+        }
+    }
+
+    private static SSLContext sslContext() throws Exception {
+        String keystore = System.getProperty(KEYSTORE_PROPERTY);
+        if (keystore == null) {
+            return null;
+        }
+        char[] password = System.getProperty(KEYSTORE_PASSWORD_PROPERTY, "").toCharArray();
+        KeyStore keys = KeyStore.getInstance(keystore.endsWith(".jks") ? "JKS" : "PKCS12");
+        try (InputStream input = new FileInputStream(keystore)) {
+            keys.load(input, password);
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keys, password);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), null, null);
+        return context;
+    }
+
+    /**
+     * Runs the server until the process is stopped. HTTPS is served with the
+     * key in {@value #KEYSTORE_PROPERTY}, plain HTTP when it is not set.
+     */
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty(MovieLookupService.VIRTUAL_THREADS_PROPERTY) == null) {
+            System.setProperty(MovieLookupService.VIRTUAL_THREADS_PROPERTY, "true");
+        }
+        SSLContext sslContext = sslContext();
+        int port = Integer.getInteger(PORT_PROPERTY, (sslContext != null) ? 8443 : 8080);
+        int maxInFlight = Integer.getInteger(MAX_IN_FLIGHT_PROPERTY, DEFAULT_MAX_IN_FLIGHT);
+        final int graceSeconds = Integer.getInteger(SHUTDOWN_GRACE_PROPERTY, 10);
+        final MovieMasterServer server = new MovieMasterServer(new MovieMasterSpeechlet(),
+                new InetSocketAddress(port), sslContext, maxInFlight);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(graceSeconds), "server-shutdown"));
+        server.start();
+    }
+}
@@ -2,10 +2,17 @@ package moviemaster;
 
 import java.time.LocalDate;
 import java.time.Period;
-import java.time.format.DateTimeFormatter;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
@@ -18,35 +25,214 @@ import com.amazon.speech.speechlet.*;
 import com.amazon.speech.ui.*;
 import com.amazonaws.util.CollectionUtils;
 import com.omertron.omdbapi.OmdbApi;
+import com.omertron.omdbapi.model.OmdbVideoBasic;
 import com.omertron.omdbapi.model.OmdbVideoFull;
 import com.omertron.omdbapi.model.SearchResults;
-import com.omertron.omdbapi.tools.OmdbBuilder;
 
 public class MovieMasterSpeechlet implements Speechlet {
 	
+    /**
+     * Renders the lines of a movie intent's answer.
+     */
+    private interface MovieRenderer {
+        void render(MovieSummary movie, String movieTitle, ResponseRenderer renderer);
+    }
+	
     private static final Logger log = LoggerFactory.getLogger(MovieMasterSpeechlet.class);
 
     private static final String SLOT_TITLE_NAME = "name";
     
+    private static final String SLOT_PERSON_NAME = "person";
+    
+    /** Slots of the titles a comparison names, a single one is searched as a series. */
+    private static final String[] SLOT_COMPARED_TITLE_NAMES = { SLOT_TITLE_NAME, "otherName", "thirdName" };
+    
+    private static final String SESSION_MOVIE = "movie";
+    
     private static final String SPEECH_REPROMPT_TEXT =
             "With Movie Master, you can get any information related to a movie."
                 + " For example, you could say what do you know about the god father movie, who acted in the god father,"
-                + " What's the rating for the god father movie, Who directed the god father, or In which year did the god father movie came out."
+                + " What's the rating for the god father movie, Who directed the god father, In which year did the god father movie came out,"
+                + " or Which movies did Francis Ford Coppola direct."
                 + " Now, What would you like to know?";
     
-    private OmdbApi omdb = new OmdbApi();
+    static final Pattern SLOT_PUNCTUATION = Pattern.compile("[.]");
+    
+    static final Pattern ACTOR_SEPARATOR = Pattern.compile("\\s*,\\s*");
+    
+    private static final Reprompt REPROMPT = ResponseRenderer.reprompt(SPEECH_REPROMPT_TEXT);
+    
+    private static final SpeechletResponse WELCOME_RESPONSE = ResponseRenderer.constantAsk(
+            "Welcomw to Movie Master. What would you like to know about?", REPROMPT);
+    
+    private static final SpeechletResponse HELP_RESPONSE = ResponseRenderer.constantAsk(
+            SPEECH_REPROMPT_TEXT, ResponseRenderer.reprompt("What information do you need?"));
+    
+    private static final SpeechletResponse GOODBYE_RESPONSE = ResponseRenderer.constantTell("Goodbye");
+    
+    private static final SpeechletResponse MISSING_TITLE_RESPONSE = ResponseRenderer.constantAsk(
+            "Which movie would you like to know about?", REPROMPT);
+    
+    private static final SpeechletResponse MISSING_PERSON_RESPONSE = ResponseRenderer.constantAsk(
+            "Whose movies would you like to know about?", REPROMPT);
+    
+    private static final SpeechletResponse TIMEOUT_RESPONSE = ResponseRenderer.constantSsmlTell(
+            "Sorry, the movie database is taking too long to answer. Please ask me again in a moment.");
+    
+    private static final SpeechletResponse UNAVAILABLE_RESPONSE = ResponseRenderer.constantSsmlTell(
+            "Sorry, I can not reach the movie database right now. Please try again later.");
+    
+    /** IMDB rating at or below which the skill advises against the movie. */
+    private static final float POOR_IMDB_RATING = 5f;
+    
+    /** Combined IMDB and Rotten Tomatoes rating above which the movie is called good. */
+    private static final float GOOD_OVERALL_RATING = 16f;
+    
+    /** Time a request may spend waiting for OMDb before the skill answers without it. */
+    static final long LATENCY_BUDGET_MILLIS = Long.getLong("moviemaster.latencyBudgetMillis", 2500L);
+    
+    private static final int MAX_SPOKEN_ACTORS = 5;
+    
+    /**
+     * Most movies one comparison looks up, all at the same time. This bounds
+     * the OMDb calls a single request can start.
+     */
+    static final int MAX_COMPARED_MOVIES = 4;
+    
+    /** Number of best rated movies spoken for a director or an actor. */
+    static final int MAX_SPOKEN_MOVIES = 5;
+    
+    /** Number of search results spoken and prefetched for a listings request. */
+    static final int TOP_LISTINGS = 3;
+    
+    static final String RENDER_METRIC = "Render";
+    
+    static final String RECORD_STORE_HIT_METRIC = "RecordStore.hits";
+    
+    /** Comparisons answered without some of their movies. */
+    static final String PARTIAL_COMPARISON_METRIC = "Compare.partial";
+    
+    private final SkillMetrics metrics = new SkillMetrics();
+    
+    private final MovieLookupService lookupService;
+    
+    private final MovieRecordStore recordStore;
+    
+    private final Map<String, IntentHandler> intentHandlers = new HashMap<String, IntentHandler>();
+    
+    private final ConcurrentMap<String, MovieLookupService.Prefetch> prefetches =
+            new ConcurrentHashMap<String, MovieLookupService.Prefetch>();
+    
+    public MovieMasterSpeechlet() {
+        this(new OmdbTransport());
+    }
+    
+    /**
+     * @param transport pooled HTTP connections the OMDb clients share, its
+     *            request, connection and byte counters go into the metrics
+     */
+    public MovieMasterSpeechlet(OmdbTransport transport) {
+        this(transport::newOmdbApi);
+        transport.registerMetrics(metrics);
+    }
+    
+    /**
+     * @param omdbFactory creates the OMDb client, now and whenever the
+     *            connections have to be re-opened after a snapshot restore
+     */
+    public MovieMasterSpeechlet(Supplier<OmdbApi> omdbFactory) {
+        this(omdbFactory, MovieRecordStore.openDefault());
+    }
+    
+    /**
+     * @param recordStore movies answered from the deployment before OMDb is asked
+     */
+    public MovieMasterSpeechlet(Supplier<OmdbApi> omdbFactory, MovieRecordStore recordStore) {
+        this.lookupService = new MovieLookupService(omdbFactory, metrics);
+        this.recordStore = recordStore;
+        registerMovieIntent("GetMovieInfoIntent", "Information for movie ", false, this::renderMovieInfo);
+        registerMovieIntent("GetMovieRatingIntent", "Rating for movie ", true, this::renderRating);
+        registerMovieIntent("GetMovieDirectorIntent", "Director for movie ", false, this::renderDirector);
+        registerMovieIntent("GetMovieActorsIntent", "Actors in movie ", false, this::renderActors);
+        registerMovieIntent("GetMoviePlotIntent", "Story for movie ", false, this::renderPlot);
+        registerMovieIntent("GetMovieReleaseDateIntent", "Release date information for movie ", false,
+                this::renderReleaseDate);
+        registerIntent("GetMovieListingsIntent", this::handleQueryForListingsRequest);
+        registerIntent("CompareMoviesIntent", this::handleCompareMoviesRequest);
+        registerIntent("GetMoviesByDirectorIntent", (intent, session, deadline) ->
+                handlePersonIntent(intent, PersonIndex.Role.DIRECTOR, "Movies directed by "));
+        registerIntent("GetMoviesByActorIntent", (intent, session, deadline) ->
+                handlePersonIntent(intent, PersonIndex.Role.ACTOR, "Movies with "));
+        registerIntent("AMAZON.HelpIntent", (intent, session, deadline) -> HELP_RESPONSE);
+        registerIntent("AMAZON.StopIntent", (intent, session, deadline) -> GOODBYE_RESPONSE);
+        registerIntent("AMAZON.CancelIntent", (intent, session, deadline) -> GOODBYE_RESPONSE);
+    }
+    
+    /**
+     * Maps the intent name to its handler, timed as {@code Intent.<name>}.
+     * Intents are only registered while the speechlet is constructed.
+     */
+    private void registerIntent(String intentName, IntentHandler handler) {
+        final String metricName = "Intent." + intentName;
+        IntentHandler timedHandler = (intent, session, deadline) -> {
+            long start = System.nanoTime();
+            try {
+                return handler.handle(intent, session, deadline);
+            } finally {
+                metrics.recordLatency(metricName, System.nanoTime() - start);
+            }
+        };
+        if (intentHandlers.put(intentName, timedHandler) != null) {
+            throw new IllegalStateException("Intent " + intentName + " is registered twice");
+        }
+    }
+    
+    private void registerMovieIntent(String intentName, String cardTitlePrefix, boolean tomatoes,
+            MovieRenderer movieRenderer) {
+        registerIntent(intentName, (intent, session, deadline) ->
+                handleMovieIntent(intent, session, deadline, cardTitlePrefix, tomatoes, movieRenderer));
+    }
+    
+    /**
+     * Adds the directors and actors of the record store's movies to the
+     * person index. {@link MovieMasterBootstrap} calls it in the init phase,
+     * so it is paid before the first request and kept in a snapshot; a host
+     * that does not go through the bootstrap calls it itself.
+     */
+    public void indexStoredPeople() {
+        if (recordStore.size() == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        PersonIndex personIndex = lookupService.getPersonIndex();
+        personIndex.registerAll(recordStore);
+        log.info("Indexed {} people of {} stored movies in {} ms", personIndex.getPersonCount(),
+                personIndex.size(), (System.nanoTime() - start) / 1000000L);
+    }
+    
+    /**
+     * Replaces the OMDb client so that no connection opened before a
+     * checkpoint is used after the restore.
+     */
+    void reopenConnections() {
+        lookupService.reopenConnections();
+    }
+    
+    public SkillMetrics getMetrics() {
+        return metrics;
+    }
     
     @Override
     public void onSessionStarted(final SessionStartedRequest request, final Session session)
             throws SpeechletException {
-        log.info("onSessionStarted requestId={}, sessionId={}", request.getRequestId(),
+        log.debug("onSessionStarted requestId={}, sessionId={}", request.getRequestId(),
                 session.getSessionId());
     }
 
     @Override
     public SpeechletResponse onLaunch(final LaunchRequest request, final Session session)
             throws SpeechletException {
-        log.info("onLaunch requestId={}, sessionId={}", request.getRequestId(),
+        log.debug("onLaunch requestId={}, sessionId={}", request.getRequestId(),
                 session.getSessionId());
         return getWelcomeResponse();
     }
@@ -54,373 +240,486 @@ public class MovieMasterSpeechlet implements Speechlet {
     @Override
     public SpeechletResponse onIntent(final IntentRequest request, final Session session)
             throws SpeechletException {
-        log.info("onIntent requestId={}, sessionId={}", request.getRequestId(),
+        log.debug("onIntent requestId={}, sessionId={}", request.getRequestId(),
                 session.getSessionId());
 
         Intent intent = request.getIntent();
         String intentName = (intent != null) ? intent.getName() : null;
+        Deadline deadline = Deadline.after(LATENCY_BUDGET_MILLIS);
 
-        if ("GetMovieInfoIntent".equals(intentName)) {
-            return handleQueryByTitleRequest(intent, session);
-        } else if ("GetMovieListingsIntent".equals(intentName)) {
-        	return handleQueryForListingsRequest(intent, session);
-        } else if ("GetMovieRatingIntent".equals(intentName)) {
-        	return handleQueryForRatingRequest(intent, session);
-        } else if ("GetMovieDirectorIntent".equals(intentName)) {
-        	return handleQueryForDirectorRequest(intent, session);
-        } else if ("GetMovieActorsIntent".equals(intentName)) {
-        	return handleQueryForActorsRequest(intent, session);
-        } else if ("GetMoviePlotIntent".equals(intentName)) {
-        	return handleQueryForPlotRequest(intent, session);
-        } else if ("GetMovieReleaseDateIntent".equals(intentName)) {
-        	return handleQueryForReleaseDateRequest(intent, session);
-        }else if ("AMAZON.HelpIntent".equals(intentName)) {
-            String speechOutput = SPEECH_REPROMPT_TEXT;
-            String repromptText = "What information do you need?";
-            return newAskResponse(speechOutput, false, repromptText, false);
-        } else if ("AMAZON.StopIntent".equals(intentName)) {
-            PlainTextOutputSpeech outputSpeech = new PlainTextOutputSpeech();
-            outputSpeech.setText("Goodbye");
-            return SpeechletResponse.newTellResponse(outputSpeech);
-        } else if ("AMAZON.CancelIntent".equals(intentName)) {
-            PlainTextOutputSpeech outputSpeech = new PlainTextOutputSpeech();
-            outputSpeech.setText("Goodbye");
-            return SpeechletResponse.newTellResponse(outputSpeech);
-        } else {
+        IntentHandler handler = intentHandlers.get(intentName);
+        if (handler == null) {
+            metrics.increment("Intent.invalid");
             throw new SpeechletException("Invalid Intent");
         }
+        return handler.handle(intent, session, deadline);
     }
 
     @Override
     public void onSessionEnded(final SessionEndedRequest request, final Session session)
             throws SpeechletException {
-        log.info("onSessionEnded requestId={}, sessionId={}", request.getRequestId(),
+        log.debug("onSessionEnded requestId={}, sessionId={}", request.getRequestId(),
                 session.getSessionId());
+        MovieLookupService.Prefetch prefetch = prefetches.remove(session.getSessionId());
+        if (prefetch != null) {
+            prefetch.cancel();
+        }
     }
 
     private SpeechletResponse getWelcomeResponse() {
-        String speechOutput = "Welcomw to Movie Master. What would you like to know about?";
-        String repromptText = SPEECH_REPROMPT_TEXT;
-        return newAskResponse(speechOutput, false, repromptText, false);
+        return WELCOME_RESPONSE;
     }
     
-    private SpeechletResponse handleQueryByTitleRequest(Intent intent, Session session) {
+    /**
+     * The pipeline every movie intent runs through: the title is resolved
+     * and the movie fetched once, with the Rotten Tomatoes ratings only when
+     * the intent needs them, then the intent renders its lines from the
+     * {@link MovieSummary} projection.
+     */
+    private SpeechletResponse handleMovieIntent(Intent intent, Session session, Deadline deadline,
+            String cardTitlePrefix, boolean tomatoes, MovieRenderer movieRenderer) {
     	
-    	StringBuilder speechOutputBuilder = new StringBuilder();
-    	StringBuilder cardOutputBuilder = new StringBuilder();
     	String movieTitle = getSlotValue(intent, SLOT_TITLE_NAME);
-    	String prefixContent = "For movie " + movieTitle + ", ";
-    	setOutputToSpeechAndCard(prefixContent, speechOutputBuilder, cardOutputBuilder);
-    	String speechOutput = "";
+    	MovieSummary sessionMovie = getSessionMovie(session);
+    	if (StringUtils.isBlank(movieTitle) && !canFollowUp(sessionMovie, tomatoes)) {
+    		return MISSING_TITLE_RESPONSE;
+    	}
     	try {
-    		OmdbVideoFull result = omdb.getInfo(new OmdbBuilder().setTitle(movieTitle).build());
-    		if(!StringUtils.equalsIgnoreCase(result.getPlot(), "N/A")) {
-    			setOutputToSpeechAndCard("Plot for the movie is, "+result.getPlot(), speechOutputBuilder, cardOutputBuilder);
-    		}
-    		if(!StringUtils.equalsIgnoreCase(result.getActors(), "N/A")) {
-    			setOutputToSpeechAndCard(result.getActors()+" acted in this movie.", speechOutputBuilder, cardOutputBuilder);
-    		}
-    		if(!StringUtils.equalsIgnoreCase(result.getDirector(), "N/A")) {
-    			setOutputToSpeechAndCard(result.getDirector()+" directed this movie.", speechOutputBuilder, cardOutputBuilder);
-    		}
-    		if(!StringUtils.equalsIgnoreCase(result.getImdbRating(), "N/A")) {
-    			setOutputToSpeechAndCard("This movie is rated "+ result.getImdbRating()+" on IMDB.", speechOutputBuilder, cardOutputBuilder);
-    		}
-    		if (cardOutputBuilder.toString().equals(prefixContent+" ")) {
-    			setOutputToSpeechAndCard("No movies were found under the title " +movieTitle, speechOutputBuilder, cardOutputBuilder);
-    		}
+    		MovieSummary result = resolveMovie(movieTitle, sessionMovie, tomatoes, session, deadline);
+    		movieTitle = StringUtils.defaultIfBlank(movieTitle, result.getTitle());
+    		long renderStart = System.nanoTime();
+    		ResponseRenderer renderer = ResponseRenderer.begin();
+    		movieRenderer.render(result, movieTitle, renderer);
+    		SpeechletResponse response = renderer.ask(cardTitlePrefix + movieTitle, REPROMPT);
+    		metrics.recordLatency(RENDER_METRIC, System.nanoTime() - renderStart);
+    		return response;
+    	} catch(MovieLookupException e) {
+    		return getLookupFailureResponse(movieTitle, e);
     	} catch(Exception e) {
-    		speechOutput = "<p> No movies were found under the title " +movieTitle+ ".Try again with a different name </p>";
-            SsmlOutputSpeech outputSpeech = new SsmlOutputSpeech();
-            outputSpeech.setSsml("<speak>" + speechOutput + "</speak>");
-            return SpeechletResponse.newTellResponse(outputSpeech);
+    		log.debug("Could not answer {} for {}", intent.getName(), movieTitle, e);
+    		return getNotFoundResponse(movieTitle);
     	}
-    	
-    	speechOutput = speechOutputBuilder.toString();
-        SimpleCard card = new SimpleCard();
-        String cardTitle = "Information for movie " + movieTitle;
-        card.setTitle(cardTitle);
-        card.setContent(cardOutputBuilder.toString());
-        
-        String repromptText = SPEECH_REPROMPT_TEXT;
-        SpeechletResponse response = newAskResponse("<speak>" + speechOutput + "</speak>", true, repromptText, false);
-        response.setCard(card);
-        return response;	
-    }
-    
-    private SpeechletResponse handleQueryForRatingRequest(Intent intent, Session session) {
-    	
-    	StringBuilder speechOutputBuilder = new StringBuilder();
-    	StringBuilder cardOutputBuilder = new StringBuilder();
-    	String movieTitle = getSlotValue(intent, SLOT_TITLE_NAME);
-    	String prefixContent = "For movie " + movieTitle + ", ";
-    	setOutputToSpeechAndCard(prefixContent, speechOutputBuilder, cardOutputBuilder);
-    	String speechOutput = "";
-    	try {
-    		OmdbVideoFull result = omdb.getInfo(new OmdbBuilder().setTitle(movieTitle).setTomatoesOn().build());
-    		String imdbRating = result.getImdbRating();
-    		String rottenTomatoesRating  = result.getTomatoRating();
-    		float overAllRating = 0;
-    		if (StringUtils.isNotBlank(rottenTomatoesRating) && !StringUtils.equalsIgnoreCase(rottenTomatoesRating, "N/A")) {
-    			overAllRating = overAllRating + Float.parseFloat(rottenTomatoesRating);
-    			setOutputToSpeechAndCard("Rating on Rotten Tomatoes is " + rottenTomatoesRating, 
-    					speechOutputBuilder, cardOutputBuilder);
-    		}
-    		if (StringUtils.isNotBlank(imdbRating) && !StringUtils.equalsIgnoreCase(imdbRating, "N/A")) {
-    			overAllRating = overAllRating + Float.parseFloat(imdbRating);
-    			setOutputToSpeechAndCard("IMDB rating is "+ imdbRating, speechOutputBuilder, cardOutputBuilder);
-    			if (Float.parseFloat(imdbRating) <= Float.parseFloat("5")) {
-        			setOutputToSpeechAndCard("If you are planning on watching this, going to a coffee shop would be a better option.",
-        					speechOutputBuilder, cardOutputBuilder);
-        		}
+    }
+    
+    private void renderMovieInfo(MovieSummary result, String movieTitle, ResponseRenderer renderer) {
+    	renderer.line("For movie ", movieTitle, ", ");
+    	if(result.getPlot() != null) {
+    		renderer.line("Plot for the movie is, ", result.getPlot());
+    	}
+    	if(result.getActors() != null) {
+    		renderer.line(null, result.getActors(), " acted in this movie.");
+    	}
+    	if(result.getDirector() != null) {
+    		renderer.line(null, result.getDirector(), " directed this movie.");
+    	}
+    	if(result.getImdbRating() != null) {
+    		renderer.line("This movie is rated ", result.getImdbRating(), " on IMDB.");
+    	}
+    	if (renderer.lineCount() == 1) {
+    		renderer.line("No movies were found under the title ", movieTitle);
+    	}
+    }
+    
+    private void renderRating(MovieSummary result, String movieTitle, ResponseRenderer renderer) {
+    	renderer.line("For movie ", movieTitle, ", ");
+    	float overAllRating = 0;
+    	if (result.hasTomatoRating()) {
+    		overAllRating = overAllRating + result.getTomatoRatingValue();
+    		renderer.line("Rating on Rotten Tomatoes is ", result.getTomatoRating());
+    	}
+    	if (result.hasImdbRating()) {
+    		overAllRating = overAllRating + result.getImdbRatingValue();
+    		renderer.line("IMDB rating is ", result.getImdbRating());
+    		if (result.getImdbRatingValue() <= POOR_IMDB_RATING) {
+    			renderer.line("If you are planning on watching this, going to a coffee shop would be a better option.");
     		}
-    		if (overAllRating > Float.parseFloat("16")) {
-    			setOutputToSpeechAndCard("Well, it sure does look like a good movie.", speechOutputBuilder, cardOutputBuilder);
+    	}
+    	if (overAllRating > GOOD_OVERALL_RATING) {
+    		renderer.line("Well, it sure does look like a good movie.");
+    	}
+    	if (!result.hasImdbRating()) {
+    		renderer.line("No Movie ratings were available for this particular title.");
+    	}
+    }
+    
+    private void renderActors(MovieSummary result, String movieTitle, ResponseRenderer renderer) {
+    	String actors = result.getActors();
+    	String[] actorsList = (actors != null) ? ACTOR_SEPARATOR.split(actors) : new String[0];
+    	if (actorsList.length > 0) {
+    		for (int i = 0; i < actorsList.length && i < MAX_SPOKEN_ACTORS; i++) {
+    			renderer.line(null, actorsList[i], ", ");
     		}
-    		if ((StringUtils.isBlank(imdbRating) && StringUtils.isBlank(rottenTomatoesRating)) || 
-    				StringUtils.equalsIgnoreCase(result.getImdbRating(), "N/A")) {
-    			setOutputToSpeechAndCard("No Movie ratings were available for this particular title.", 
-    					speechOutputBuilder, cardOutputBuilder);
+    		renderer.line("are the prominent casting crew in this movie.");
+    	} else {
+    		renderer.line("There are no actors listed for this particular title.");
+    	}
+    }
+    
+    private void renderDirector(MovieSummary result, String movieTitle, ResponseRenderer renderer) {
+    	String director = result.getDirector();
+    	if (director != null) {
+    		renderer.line(null, director, " directed this movie.");
+    	} else {
+    		renderer.line("There are no directors listed for this particular title.");
+    	}
+    }
+    
+    private void renderPlot(MovieSummary result, String movieTitle, ResponseRenderer renderer) {
+    	String moviePlot = result.getPlot();
+    	if (moviePlot != null) {
+    		renderer.line("Plot for the movie is,  ", moviePlot);
+    	} else {
+    		renderer.line("There is no movie plot listed for this particular title.");
+    	}
+    }
+    
+    private void renderReleaseDate(MovieSummary result, String movieTitle, ResponseRenderer renderer) {
+    	LocalDate releaseDate = result.getReleaseDate();
+    	if (releaseDate != null) {
+    		if (releaseDate.isAfter(releaseDate)) {
+    			renderer.line("This movie is supposed to be released on ", releaseDate.toString());
+    			renderer.line("Hope it does well!");
+    		} else {
+    			Period intervalPeriod = Period.between(releaseDate, LocalDate.now());
+    			renderer.line("This movie was released on ", releaseDate.toString());
+    			if (intervalPeriod.getYears() > 30) {
+    				renderer.line("Good lord! This movie is really old.");
+    				renderer.line("It's been already ", intervalPeriod.getYears(), "years.");
+    			}
     		}
-    	} catch(Exception e) {
-    		speechOutput = "<p> No movies were found under the title " +movieTitle+ ".Try again with a different name </p>";
-            SsmlOutputSpeech outputSpeech = new SsmlOutputSpeech();
-            outputSpeech.setSsml("<speak>" + speechOutput + "</speak>");
-            return SpeechletResponse.newTellResponse(outputSpeech);
-    	}
-    	speechOutput = speechOutputBuilder.toString();
-        SimpleCard card = new SimpleCard();
-        String cardTitle = "Rating for movie " + movieTitle;
-        card.setTitle(cardTitle);
-        card.setContent(cardOutputBuilder.toString());
-    	
-        String repromptText = SPEECH_REPROMPT_TEXT;   
-        SpeechletResponse response = newAskResponse("<speak>" + speechOutput + "</speak>", true, repromptText, false);
-        response.setCard(card);
-        return response;	
+    	} else {
+    		renderer.line("Release date for the movie is not available.");
+    	}
     }
     
-    private SpeechletResponse handleQueryForListingsRequest(Intent intent, Session session) {
+    private SpeechletResponse handleQueryForListingsRequest(Intent intent, Session session, Deadline deadline) {
     	
-    	StringBuilder speechOutputBuilder = new StringBuilder();
-    	StringBuilder cardOutputBuilder = new StringBuilder();
+    	ResponseRenderer renderer = ResponseRenderer.begin();
     	String movieTitle = getSlotValue(intent, SLOT_TITLE_NAME);
-    	String speechOutput = "";
     	try {
-        	SearchResults searchResults = omdb.search(new OmdbBuilder().setSearchTerm(movieTitle).build());
-        	String movieListingsText = "Found " +searchResults.getTotalResults() +" movie listings "
-        			+ "with title " +movieTitle+ " in it.";
-        	setOutputToSpeechAndCard(movieListingsText, speechOutputBuilder, cardOutputBuilder);
+        	SearchResults searchResults = lookupService.searchMovies(movieTitle, deadline);
+        	renderer.line("Found " + searchResults.getTotalResults() + " movie listings with title ", movieTitle,
+        			" in it.");
+        	if (!CollectionUtils.isNullOrEmpty(searchResults.getResults())) {
+        		List<OmdbVideoBasic> topResults = searchResults.getResults().stream()
+        				.limit(TOP_LISTINGS).collect(Collectors.toList());
+        		renderer.line("The top results are ", topResults.stream().map(OmdbVideoBasic::getTitle)
+        				.collect(Collectors.joining(", ")), ".");
+        		startPrefetch(session, topResults);
+        	}
+    	} catch(MovieLookupException e) {
+    		return getLookupFailureResponse(movieTitle, e);
     	} catch(Exception e) {
-    		speechOutput = "<p> No movies were found under the title " +movieTitle+ ".Try again with a different name </p>";
-            SsmlOutputSpeech outputSpeech = new SsmlOutputSpeech();
-            outputSpeech.setSsml("<speak>" + speechOutput + "</speak>");
-            return SpeechletResponse.newTellResponse(outputSpeech);
-    	}
-    	speechOutput = speechOutputBuilder.toString();
-    	SimpleCard card = new SimpleCard();
-        String cardTitle = "Total Listings for movie " + movieTitle;
-        card.setTitle(cardTitle);
-        card.setContent(cardOutputBuilder.toString());
-    	
-        String repromptText = SPEECH_REPROMPT_TEXT;  
-        SpeechletResponse response = newAskResponse("<speak>" + speechOutput + "</speak>", true, repromptText, false);
-        response.setCard(card);
-        return response;	
+    		return getNotFoundResponse(movieTitle);
+    	}
+    	return renderer.ask("Total Listings for movie " + movieTitle, REPROMPT);
     }
     
-    private SpeechletResponse handleQueryForActorsRequest(Intent intent, Session session) {
+    /**
+     * Compares the ratings of the movies named in the slots, or of the top
+     * search results when only one title is given, as in "compare the toy
+     * story movies". All movies are looked up at once against the request's
+     * deadline, so the comparison takes as long as its slowest lookup rather
+     * than their sum. The search has to finish before them and gets only half
+     * of the time, so a slow search still leaves the lookups the other half.
+     * Movies that are not found or not answered in time are left out and
+     * named.
+     */
+    private SpeechletResponse handleCompareMoviesRequest(Intent intent, Session session, Deadline deadline) {
     	
-    	StringBuilder speechOutputBuilder = new StringBuilder();
-    	StringBuilder cardOutputBuilder = new StringBuilder();
-    	String movieTitle = getSlotValue(intent, SLOT_TITLE_NAME);
-    	String speechOutput = "";
+    	List<String> movieTitles = new ArrayList<String>(SLOT_COMPARED_TITLE_NAMES.length);
+    	for (String slotName : SLOT_COMPARED_TITLE_NAMES) {
+    		String movieTitle = getSlotValue(intent, slotName);
+    		if (StringUtils.isNotBlank(movieTitle)) {
+    			movieTitles.add(movieTitle);
+    		}
+    	}
+    	if (movieTitles.isEmpty()) {
+    		return MISSING_TITLE_RESPONSE;
+    	}
+    	String subject = String.join(" and ", movieTitles);
+    	List<String> lookupTitles = new ArrayList<String>(MAX_COMPARED_MOVIES);
+    	List<CompletableFuture<MovieSummary>> lookups = new ArrayList<CompletableFuture<MovieSummary>>();
     	try {
-    		OmdbVideoFull result = omdb.getInfo(new OmdbBuilder().setTitle(movieTitle).build());
-    		String actors = result.getActors();
-    		if (StringUtils.isNotBlank(actors) && !StringUtils.equalsIgnoreCase(actors, "N/A")) {
-    			List<String> actorsList = Arrays.asList(actors.split("\\s*,\\s*"));
-    			if(!CollectionUtils.isNullOrEmpty(actorsList)) {
-    				List<String> listToExpose = actorsList.stream().limit(5).collect(Collectors.toList()); 
-    				for (String actor : listToExpose) {
-    					setOutputToSpeechAndCard(actor + ", ", speechOutputBuilder, cardOutputBuilder);
+    		if (movieTitles.size() == 1) {
+    			SearchResults searchResults = lookupService.searchMovies(subject, deadline.share(2));
+    			if (!CollectionUtils.isNullOrEmpty(searchResults.getResults())) {
+    				for (OmdbVideoBasic listing : searchResults.getResults()) {
+    					if (listing.getImdbID() != null && lookupTitles.size() < MAX_COMPARED_MOVIES) {
+    						lookupTitles.add(listing.getTitle());
+    						lookups.add(compareLookup(listing.getTitle(), listing.getImdbID(), deadline));
+    					}
     				}
-    				setOutputToSpeechAndCard("are the prominent casting crew in this movie.", 
-    						speechOutputBuilder, cardOutputBuilder);			
-    			} else {
-    				setOutputToSpeechAndCard("There are no actors listed for this particular title.", 
-    						speechOutputBuilder, cardOutputBuilder);
     			}
     		} else {
-    			setOutputToSpeechAndCard("There are no actors listed for this particular title.", 
-						speechOutputBuilder, cardOutputBuilder);
+    			for (String movieTitle : movieTitles) {
+    				lookupTitles.add(movieTitle);
+    				lookups.add(compareLookup(movieTitle, null, deadline));
+    			}
     		}
+    	} catch(MovieLookupException e) {
+    		return getLookupFailureResponse(subject, e);
     	} catch(Exception e) {
-    		speechOutput = "<p> No movies were found under the title " +movieTitle+ ".Try again with a different name </p>";
-            SsmlOutputSpeech outputSpeech = new SsmlOutputSpeech();
-            outputSpeech.setSsml("<speak>" + speechOutput + "</speak>");
-            return SpeechletResponse.newTellResponse(outputSpeech);
-    	}
-    	speechOutput = speechOutputBuilder.toString();
-        SimpleCard card = new SimpleCard();
-        String cardTitle = "Actors in movie " + movieTitle;
-        card.setTitle(cardTitle);
-        card.setContent(cardOutputBuilder.toString());
+    		log.debug("Could not search {} to compare", subject, e);
+    		return getNotFoundResponse(subject);
+    	}
+    	CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[lookups.size()]))
+    			.exceptionally(failure -> null).join();
     	
-        String repromptText = SPEECH_REPROMPT_TEXT;   
-        SpeechletResponse response = newAskResponse("<speak>" + speechOutput + "</speak>", true, repromptText, false);
-        response.setCard(card);
-        return response;	
+    	List<MovieSummary> movies = new ArrayList<MovieSummary>(lookups.size());
+    	List<String> notFound = new ArrayList<String>();
+    	List<String> unanswered = new ArrayList<String>();
+    	MovieLookupException firstFailure = null;
+    	for (int i = 0; i < lookups.size(); i++) {
+    		try {
+    			movies.add(lookups.get(i).join());
+    		} catch(CompletionException | CancellationException e) {
+    			MovieLookupException failure = lookupFailure(e);
+    			firstFailure = (firstFailure != null) ? firstFailure : failure;
+    			if (failure.getOutcome() == LookupOutcome.NOT_FOUND) {
+    				notFound.add(lookupTitles.get(i));
+    			} else {
+    				unanswered.add(lookupTitles.get(i));
+    			}
+    		}
+    	}
+    	if (movies.isEmpty()) {
+    		return (firstFailure != null) ? getLookupFailureResponse(subject, firstFailure) : getNotFoundResponse(subject);
+    	}
+    	if (firstFailure != null) {
+    		metrics.increment(PARTIAL_COMPARISON_METRIC);
+    	}
+    	long renderStart = System.nanoTime();
+    	ResponseRenderer renderer = ResponseRenderer.begin();
+    	renderComparison(movies, renderer);
+    	if (!notFound.isEmpty()) {
+    		renderer.line("I could not find ", String.join(", ", notFound), ".");
+    	}
+    	if (!unanswered.isEmpty()) {
+    		renderer.line("I could not get the ratings for ", String.join(", ", unanswered), " right now.");
+    	}
+    	SpeechletResponse response = renderer.ask("Comparison of " + subject, REPROMPT);
+    	metrics.recordLatency(RENDER_METRIC, System.nanoTime() - renderStart);
+    	return response;
     }
     
-    private SpeechletResponse handleQueryForDirectorRequest(Intent intent, Session session) {
-    	
-    	StringBuilder speechOutputBuilder = new StringBuilder();
-    	StringBuilder cardOutputBuilder = new StringBuilder();
-    	String movieTitle = getSlotValue(intent, SLOT_TITLE_NAME);
-    	String speechOutput = "";
-    	try {
-    		OmdbVideoFull result = omdb.getInfo(new OmdbBuilder().setTitle(movieTitle).build());
-    		String director = result.getDirector();
-    		if (StringUtils.isNotBlank(director) && !StringUtils.equalsIgnoreCase(director, "N/A")) {
-    			setOutputToSpeechAndCard(director+ " directed this movie.", speechOutputBuilder, cardOutputBuilder);
+    /**
+     * Starts the lookup of one compared movie with its Rotten Tomatoes
+     * rating, answered from the record store when it has the movie.
+     *
+     * @param imdbID the movie of a search result, or null to resolve the title
+     */
+    private CompletableFuture<MovieSummary> compareLookup(String movieTitle, String imdbID, Deadline deadline) {
+    	MovieSummary stored = (imdbID != null)
+    			? findStoredMovie(recordStore.findByImdbID(imdbID, movieTitle), true)
+    			: findStoredTitle(movieTitle, true);
+    	if (stored != null) {
+    		return CompletableFuture.completedFuture(stored);
+    	}
+    	CompletableFuture<OmdbVideoFull> lookup = (imdbID != null)
+    			? lookupService.getMovieInfoByIdAsync(imdbID, true, deadline)
+    			: lookupService.resolveMovieInfoAsync(movieTitle, true, deadline);
+    	return lookup.thenApply(video -> MovieSummary.from(movieTitle, video, true));
+    }
+    
+    /**
+     * Speaks the ratings of each movie, best IMDB rating first, and which
+     * movie comes out on top on IMDB and on Rotten Tomatoes.
+     */
+    private void renderComparison(List<MovieSummary> movies, ResponseRenderer renderer) {
+    	movies.sort((first, second) -> Float.compare(imdbRank(second), imdbRank(first)));
+    	MovieSummary bestOnTomatoes = null;
+    	for (MovieSummary movie : movies) {
+    		if (movie.hasImdbRating() && movie.hasTomatoRating()) {
+    			renderer.line(movie.getTitle() + " is rated ", movie.getImdbRating(),
+    					" on IMDB and " + movie.getTomatoRating() + " on Rotten Tomatoes.");
+    		} else if (movie.hasImdbRating()) {
+    			renderer.line(movie.getTitle() + " is rated ", movie.getImdbRating(), " on IMDB.");
+    		} else if (movie.hasTomatoRating()) {
+    			renderer.line(movie.getTitle() + " is rated ", movie.getTomatoRating(), " on Rotten Tomatoes.");
     		} else {
-    			setOutputToSpeechAndCard("There are no directors listed for this particular title.", 
-    					speechOutputBuilder, cardOutputBuilder);
+    			renderer.line(null, movie.getTitle(), " has no ratings yet.");
     		}
-    	} catch(Exception e) {
-    		speechOutput = "<p> No movies were found under the title " +movieTitle+ ".Try again with a different name </p>";
-            SsmlOutputSpeech outputSpeech = new SsmlOutputSpeech();
-            outputSpeech.setSsml("<speak>" + speechOutput + "</speak>");
-            return SpeechletResponse.newTellResponse(outputSpeech);
-    	}
-    	speechOutput = speechOutputBuilder.toString();
-        SimpleCard card = new SimpleCard();
-        String cardTitle = "Director for movie " + movieTitle;
-        card.setTitle(cardTitle);
-        card.setContent(cardOutputBuilder.toString());
-    	
-        String repromptText = SPEECH_REPROMPT_TEXT;   
-        SpeechletResponse response = newAskResponse("<speak>" + speechOutput + "</speak>", true, repromptText, false);
-        response.setCard(card);
-        return response;	
+    		if (movie.hasTomatoRating() && (bestOnTomatoes == null
+    				|| movie.getTomatoRatingValue() > bestOnTomatoes.getTomatoRatingValue())) {
+    			bestOnTomatoes = movie;
+    		}
+    	}
+    	MovieSummary best = movies.get(0);
+    	if (movies.size() > 1 && best.hasImdbRating() && imdbRank(best) > imdbRank(movies.get(1))) {
+    		renderer.line(null, best.getTitle(), " is rated highest on IMDB.");
+    		if (bestOnTomatoes != null && bestOnTomatoes != best) {
+    			renderer.line("But on Rotten Tomatoes, ", bestOnTomatoes.getTitle(), " comes out on top.");
+    		}
+    	}
+    }
+    
+    private static float imdbRank(MovieSummary movie) {
+    	return movie.hasImdbRating() ? movie.getImdbRatingValue() : -1f;
+    }
+    
+    private static MovieLookupException lookupFailure(RuntimeException e) {
+    	Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+    	return (cause instanceof MovieLookupException) ? (MovieLookupException) cause
+    			: new MovieLookupException(LookupOutcome.ERROR, String.valueOf(cause.getMessage()), cause);
     }
     
-    private SpeechletResponse handleQueryForPlotRequest(Intent intent, Session session) {
+    /**
+     * Lists the best rated movies of a director or an actor from the
+     * {@link PersonIndex}. OMDb cannot search by person, so only movies the
+     * skill has already seen or has in its record store are known.
+     */
+    private SpeechletResponse handlePersonIntent(Intent intent, PersonIndex.Role role,
+    		String cardTitlePrefix) {
     	
-    	StringBuilder speechOutputBuilder = new StringBuilder();
-    	StringBuilder cardOutputBuilder = new StringBuilder();
-    	String movieTitle = getSlotValue(intent, SLOT_TITLE_NAME);
-    	String speechOutput = "";
-    	try {
-    		OmdbVideoFull result = omdb.getInfo(new OmdbBuilder().setTitle(movieTitle).build());
-    		String moviePlot = result.getPlot();
-    		if (StringUtils.isNotBlank(moviePlot) && !StringUtils.equalsIgnoreCase(moviePlot, "N/A")) {
-    			setOutputToSpeechAndCard("Plot for the movie is,  "+ moviePlot, speechOutputBuilder, cardOutputBuilder);
+    	String personName = getSlotValue(intent, SLOT_PERSON_NAME);
+    	if (StringUtils.isBlank(personName)) {
+    		return MISSING_PERSON_RESPONSE;
+    	}
+    	boolean director = role == PersonIndex.Role.DIRECTOR;
+    	ResponseRenderer renderer = ResponseRenderer.begin();
+    	PersonIndex.Filmography filmography = lookupService.getPersonIndex().find(personName, role,
+    			MAX_SPOKEN_MOVIES);
+    	if (filmography == null) {
+    		renderer.line(director ? "I don't know any movies directed by " : "I don't know any movies with ",
+    				personName, " yet. Ask me about one of their movies first.");
+    		return renderer.ask(cardTitlePrefix + personName, REPROMPT);
+    	}
+    	int movieCount = filmography.getMovieCount();
+    	renderer.line(filmography.getPersonName() + (director ? " directed " : " acted in "), movieCount,
+    			(movieCount == 1) ? " movie I know of." : " movies I know of.");
+    	if (movieCount > 1) {
+    		renderer.line("The best rated are");
+    	}
+    	for (PersonIndex.Movie movie : filmography.getMovies()) {
+    		if (Float.isNaN(movie.getImdbRating())) {
+    			renderer.line(null, movie.getTitle(), ".");
     		} else {
-    			setOutputToSpeechAndCard("There is no movie plot listed for this particular title.", 
-    					speechOutputBuilder, cardOutputBuilder);
+    			renderer.line(movie.getTitle() + ", rated ", Float.toString(movie.getImdbRating()), " on IMDB.");
     		}
-    	} catch(Exception e) {
-    		speechOutput = "<p> No movies were found under the title " +movieTitle+ ".Try again with a different name </p>";
-            SsmlOutputSpeech outputSpeech = new SsmlOutputSpeech();
-            outputSpeech.setSsml("<speak>" + speechOutput + "</speak>");
-            return SpeechletResponse.newTellResponse(outputSpeech);
-    	}
-    	speechOutput = speechOutputBuilder.toString();
-        SimpleCard card = new SimpleCard();
-        String cardTitle = "Story for movie " + movieTitle;
-        card.setTitle(cardTitle);
-        card.setContent(cardOutputBuilder.toString());
-    	
-        String repromptText = SPEECH_REPROMPT_TEXT;   
-        SpeechletResponse response = newAskResponse("<speak>" + speechOutput + "</speak>", true, repromptText, false);
-        response.setCard(card);
-        return response;	
+    	}
+    	return renderer.ask(cardTitlePrefix + filmography.getPersonName(), REPROMPT);
     }
     
-    private SpeechletResponse handleQueryForReleaseDateRequest(Intent intent, Session session) {
-    	
-    	StringBuilder speechOutputBuilder = new StringBuilder();
-    	StringBuilder cardOutputBuilder = new StringBuilder();
-    	String movieTitle = getSlotValue(intent, SLOT_TITLE_NAME);
-    	String speechOutput = "";
-    	try {
-    		OmdbVideoFull result = omdb.getInfo(new OmdbBuilder().setTitle(movieTitle).build());
-    		String dateString = result.getReleased();
-    		
-    		if (StringUtils.isNotBlank(dateString)) {
-    			DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd MMM yyyy",Locale.ENGLISH);
-        		LocalDate releaseDate = LocalDate.parse(dateString, formatter);
-        		if (releaseDate.isAfter(releaseDate)) {
-        			setOutputToSpeechAndCard("This movie is supposed to be released on " + releaseDate.toString(), 
-        					speechOutputBuilder, cardOutputBuilder);
-        			setOutputToSpeechAndCard("Hope it does well!", speechOutputBuilder, cardOutputBuilder);	
-        		} else {
-        			Period intervalPeriod = Period.between(releaseDate, LocalDate.now());
-        			setOutputToSpeechAndCard("This movie was released on " + releaseDate, 
-        					speechOutputBuilder, cardOutputBuilder);
-        			if (intervalPeriod.getYears() > 30) {
-        				setOutputToSpeechAndCard("Good lord! This movie is really old.", speechOutputBuilder, cardOutputBuilder);
-        				setOutputToSpeechAndCard("It's been already "+intervalPeriod.getYears() +"years.", 
-        						speechOutputBuilder, cardOutputBuilder);
-        			}
-        		}
-    		} else {
-    			setOutputToSpeechAndCard("Release date for the movie is not available.", speechOutputBuilder, cardOutputBuilder);
+    /**
+     * Whether an intent without a title can be answered for the session
+     * movie: from the session itself, or by looking the movie up again by its
+     * imdbID when the intent needs ratings the session does not hold.
+     */
+    static boolean canFollowUp(MovieSummary sessionMovie, boolean tomatoes) {
+    	return sessionMovie != null
+    			&& (!tomatoes || sessionMovie.hasTomatoes() || sessionMovie.getImdbID() != null);
+    }
+    
+    /**
+     * Answers from the movie kept in the session when the slot is empty or
+     * names the same movie again. Otherwise the movie is taken from the record
+     * store or looked up, and stored in the session for the follow-up intents.
+     */
+    private MovieSummary resolveMovie(String movieTitle, MovieSummary sessionMovie, boolean tomatoes, Session session,
+    		Deadline deadline) throws MovieLookupException {
+    	if (sessionMovie != null) {
+    		boolean followUp = StringUtils.isBlank(movieTitle) || sessionMovie.matches(movieTitle);
+    		if (followUp && (!tomatoes || sessionMovie.hasTomatoes())) {
+    			return sessionMovie;
     		}
-    	} catch(Exception e) {
-    		speechOutput = "<p> No movies were found under the title " +movieTitle+ ".Try again with a different name </p>";
-            SsmlOutputSpeech outputSpeech = new SsmlOutputSpeech();
-            outputSpeech.setSsml("<speak>" + speechOutput + "</speak>");
-            return SpeechletResponse.newTellResponse(outputSpeech);
-    	}
-    	speechOutput = speechOutputBuilder.toString();
-        SimpleCard card = new SimpleCard();
-        String cardTitle = "Release date information for movie " + movieTitle;
-        card.setTitle(cardTitle);
-        card.setContent(cardOutputBuilder.toString());
-    	
-        String repromptText = SPEECH_REPROMPT_TEXT;   
-        SpeechletResponse response = newAskResponse("<speak>" + speechOutput + "</speak>", true, repromptText, false);
-        response.setCard(card);
-        return response;	
+    		if (StringUtils.isBlank(movieTitle) && sessionMovie.getImdbID() != null) {
+    			MovieSummary stored = findStoredMovie(recordStore.findByImdbID(sessionMovie.getImdbID(),
+    					sessionMovie.getSpokenTitle()), tomatoes);
+    			return storeSessionMovie(session, (stored != null) ? stored : MovieSummary.from(
+    					sessionMovie.getSpokenTitle(),
+    					lookupService.getMovieInfoById(sessionMovie.getImdbID(), tomatoes, deadline), tomatoes));
+    		}
+    	}
+    	MovieSummary stored = findStoredTitle(movieTitle, tomatoes);
+    	return storeSessionMovie(session, (stored != null) ? stored : MovieSummary.from(movieTitle,
+    			lookupService.resolveMovieInfo(movieTitle, tomatoes, deadline), tomatoes));
     }
     
-    private void setOutputToSpeechAndCard(String message, StringBuilder speechBuilder, StringBuilder cardBuilder) {
-    	speechBuilder.append("<p>" + message + "</p> ");
-    	cardBuilder.append(message + " ");
+    /**
+     * Finds the movie in the record store by its spoken title, or by the
+     * imdbID the title index knows for exactly that title.
+     */
+    private MovieSummary findStoredTitle(String movieTitle, boolean tomatoes) {
+    	MovieSummary stored = findStoredMovie(recordStore.findByTitle(movieTitle), tomatoes);
+    	if (stored == null) {
+    		TitleIndex.Match match = lookupService.getTitleIndex().resolveExact(movieTitle);
+    		if (match != null) {
+    			stored = findStoredMovie(recordStore.findByImdbID(match.getImdbID(), movieTitle), tomatoes);
+    		}
+    	}
+    	return stored;
+    }
+    
+    /**
+     * @return the stored movie if it can answer the intent, that is it has
+     *         the Rotten Tomatoes rating when the intent needs it
+     */
+    private MovieSummary findStoredMovie(MovieSummary stored, boolean tomatoes) {
+    	if (stored == null || (tomatoes && !stored.hasTomatoes())) {
+    		return null;
+    	}
+    	metrics.increment(RECORD_STORE_HIT_METRIC);
+    	return stored;
+    }
+    
+    /**
+     * Prefetches the movies the user is likely to ask about next. A newer
+     * listing or the end of the session cancels what has not run yet.
+     */
+    private void startPrefetch(Session session, List<OmdbVideoBasic> movies) {
+    	final MovieLookupService.Prefetch prefetch = lookupService.prefetch(movies);
+    	if (session == null || session.getSessionId() == null) {
+    		return;
+    	}
+    	final String sessionId = session.getSessionId();
+    	MovieLookupService.Prefetch previous = prefetches.put(sessionId, prefetch);
+    	if (previous != null) {
+    		previous.cancel();
+    	}
+    	prefetch.whenDone(() -> prefetches.remove(sessionId, prefetch));
+    }
+    
+    private MovieSummary storeSessionMovie(Session session, MovieSummary movie) {
+    	if (session != null) {
+    		session.setAttribute(SESSION_MOVIE, movie.toAttributes());
+    	}
+    	return movie;
+    }
+    
+    private MovieSummary getSessionMovie(Session session) {
+    	return (session != null) ? MovieSummary.fromAttributes(session.getAttribute(SESSION_MOVIE)) : null;
+    }
+    
+    /**
+     * Tells the user why there is no answer: an unknown title gets the usual
+     * not found response, while a slow or failing OMDb is reported as such.
+     */
+    private SpeechletResponse getLookupFailureResponse(String movieTitle, MovieLookupException e) {
+    	log.warn("Movie lookup for {} ended with {}: {}", movieTitle, e.getOutcome(), e.getMessage());
+    	switch (e.getOutcome()) {
+    	case TIMEOUT:
+    		return TIMEOUT_RESPONSE;
+    	case CIRCUIT_OPEN:
+    	case ERROR:
+    		return UNAVAILABLE_RESPONSE;
+    	default:
+    		return getNotFoundResponse(movieTitle);
+    	}
+    }
+    
+    private SpeechletResponse getNotFoundResponse(String movieTitle) {
+    	return ResponseRenderer.begin().line("No movies were found under the title ", movieTitle,
+    			". Try again with a different name").tell();
     }
     
     private String getSlotValue(Intent intent, String slotType) {
         Slot slot = intent.getSlot(slotType);
         if (slot != null && slot.getValue() != null) {
-        	return slot.getValue().replaceAll("[.]","");
-        } else {
-        	log.error("slot value for intent is empty");
-            return new String("");
-        }
-    }
-    
-    private SpeechletResponse newAskResponse(String stringOutput, boolean isOutputSsml,
-            String repromptText, boolean isRepromptSsml) {
-        OutputSpeech outputSpeech, repromptOutputSpeech;
-        if (isOutputSsml) {
-            outputSpeech = new SsmlOutputSpeech();
-            ((SsmlOutputSpeech) outputSpeech).setSsml(stringOutput);
-        } else {
-            outputSpeech = new PlainTextOutputSpeech();
-            ((PlainTextOutputSpeech) outputSpeech).setText(stringOutput);
-        }
-        if (isRepromptSsml) {
-            repromptOutputSpeech = new SsmlOutputSpeech();
-            ((SsmlOutputSpeech) repromptOutputSpeech).setSsml(repromptText);
+        	return SLOT_PUNCTUATION.matcher(slot.getValue()).replaceAll("");
         } else {
-            repromptOutputSpeech = new PlainTextOutputSpeech();
-            ((PlainTextOutputSpeech) repromptOutputSpeech).setText(repromptText);
+        	log.debug("slot value for intent is empty");
+            return "";
         }
-        Reprompt reprompt = new Reprompt();
-        reprompt.setOutputSpeech(repromptOutputSpeech);
-        return SpeechletResponse.newAskResponse(outputSpeech, reprompt);
     }
-}
\ No newline at end of file
+}
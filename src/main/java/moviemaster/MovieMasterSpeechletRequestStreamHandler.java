@@ -1,26 +1,90 @@
 package moviemaster;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.amazon.speech.speechlet.Speechlet;
 import com.amazon.speech.speechlet.lambda.SpeechletRequestStreamHandler;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+
+/**
+ * Lambda entry point. Requests are handled by the SDK's
+ * {@link SpeechletRequestStreamHandler}, whose {@code handleRequest} is final,
+ * so this handler wraps it rather than extending it and flushes the metrics
+ * after each call.
+ */
+public class MovieMasterSpeechletRequestStreamHandler implements RequestStreamHandler {
 
-public class MovieMasterSpeechletRequestStreamHandler extends SpeechletRequestStreamHandler {
+	public static final String APPLICATION_ID = "amzn1.ask.skill.477cb321-b587-47ed-a5db-30196e96d3c2";
 
 	private static final Set<String> supportedApplicationIds;
 
+	/** Logger of the metric lines, configured to write the bare JSON document. */
+	private static final Logger metricsLog = LoggerFactory.getLogger("moviemaster.metrics");
+
+	private final SpeechletRequestStreamHandler delegate;
+
+	private final SkillMetrics metrics;
+
     static {
         supportedApplicationIds = new HashSet<String>();
-        supportedApplicationIds.add("amzn1.ask.skill.477cb321-b587-47ed-a5db-30196e96d3c2");
+        supportedApplicationIds.add(APPLICATION_ID);
     }
 
     public MovieMasterSpeechletRequestStreamHandler() {
-        super(new MovieMasterSpeechlet(), supportedApplicationIds);
+        this(new MovieMasterSpeechlet());
+    }
+
+    /**
+     * Hosts the given speechlet and primes it during the init phase, see
+     * {@link MovieMasterBootstrap}.
+     */
+    public MovieMasterSpeechletRequestStreamHandler(MovieMasterSpeechlet speechlet) {
+        this.delegate = new SdkHandler(speechlet, supportedApplicationIds);
+        this.metrics = speechlet.getMetrics();
+        MovieMasterBootstrap.initialize(this, speechlet);
     }
 
     public MovieMasterSpeechletRequestStreamHandler(Speechlet speechlet,
             Set<String> supportedApplicationIds) {
-        super(speechlet, supportedApplicationIds);
+        this.delegate = new SdkHandler(speechlet, supportedApplicationIds);
+        this.metrics = (speechlet instanceof MovieMasterSpeechlet) ? ((MovieMasterSpeechlet) speechlet).getMetrics()
+                : null;
+    }
+
+    /**
+     * Handles the request and then logs the metrics recorded since the
+     * previous invocation as one EMF line. Calls without a Lambda context,
+     * such as priming, are not flushed.
+     */
+    @Override
+    public void handleRequest(InputStream input, OutputStream output, Context context) throws IOException {
+        try {
+            delegate.handleRequest(input, output, context);
+        } finally {
+            if (context != null && metrics != null && metricsLog.isInfoEnabled()) {
+                String document = metrics.flush(System.currentTimeMillis(),
+                        Collections.singletonMap("RequestId", context.getAwsRequestId()));
+                if (document != null) {
+                    metricsLog.info(document);
+                }
+            }
+        }
+    }
+
+    /** The SDK handler is abstract and meant to be subclassed as is. */
+    private static final class SdkHandler extends SpeechletRequestStreamHandler {
+
+        SdkHandler(Speechlet speechlet, Set<String> supportedApplicationIds) {
+            super(speechlet, supportedApplicationIds);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,218 @@
+package moviemaster;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.omertron.omdbapi.model.OmdbVideoFull;
+
+/**
+ * Bounded in-process cache of OMDb lookups keyed by normalized title.
+ * Entries are evicted least recently used first once the cache is full and
+ * expire after a fixed time to live. Expired records are kept as stale for a
+ * while longer, so they can still be served when OMDb is slow or failing.
+ * Titles OMDb could not find are cached as negative entries with a shorter
+ * time to live and are never served stale.
+ */
+public class MovieRecordCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(6);
+    public static final long DEFAULT_NOT_FOUND_TTL_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    public static final long DEFAULT_MAX_STALE_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    private static final String TOMATOES_SUFFIX = "|tomatoes";
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final long notFoundTtlMillis;
+    private final long maxStaleMillis;
+    private final Map<String, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    public MovieRecordCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS, DEFAULT_NOT_FOUND_TTL_MILLIS, DEFAULT_MAX_STALE_MILLIS);
+    }
+
+    public MovieRecordCache(int maxEntries, long ttlMillis, long notFoundTtlMillis, long maxStaleMillis) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.notFoundTtlMillis = notFoundTtlMillis;
+        this.maxStaleMillis = maxStaleMillis;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MovieRecordCache.Entry> eldest) {
+                if (size() > MovieRecordCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached entry for the title, or null on a miss. The entry may
+     * be stale, see {@link Entry#isStale()}. A lookup without tomatoes is also
+     * answered by a record fetched with tomatoes on.
+     */
+    public Entry get(String title, boolean tomatoes) {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry entry = getLive(key(title, tomatoes), now);
+            if (!tomatoes && (entry == null || entry.isStale(now))) {
+                Entry tomatoesEntry = getLive(key(title, true), now);
+                if (tomatoesEntry != null && (entry == null || !tomatoesEntry.isStale(now))) {
+                    entry = tomatoesEntry;
+                }
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+            } else if (entry.isStale(now)) {
+                staleHits.incrementAndGet();
+            } else {
+                hits.incrementAndGet();
+            }
+            return entry;
+        }
+    }
+
+    public void put(String title, boolean tomatoes, OmdbVideoFull video) {
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        store(key(title, tomatoes), new Entry(video, expiresAt, expiresAt + maxStaleMillis));
+    }
+
+    public void putNotFound(String title, boolean tomatoes) {
+        long expiresAt = System.currentTimeMillis() + notFoundTtlMillis;
+        store(key(title, tomatoes), new Entry(null, expiresAt, expiresAt));
+    }
+
+    /**
+     * Drops every entry past its stale period. Such entries are otherwise only
+     * removed when they are looked up or pushed out by newer ones.
+     */
+    public void purgeExpired() {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().isEvictable(now)) {
+                    iterator.remove();
+                    expirations.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getStaleHits() {
+        return staleHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    @Override
+    public String toString() {
+        return "MovieRecordCache[size=" + size() + ", hits=" + hits.get() + ", staleHits=" + staleHits.get() + ", misses=" + misses.get()
+                + ", evictions=" + evictions.get() + ", expirations=" + expirations.get() + "]";
+    }
+
+    /**
+     * Normalizes a spoken title so that case and spacing variants share one
+     * entry. Records fetched with tomatoes on are kept under their own key.
+     */
+    static String key(String title, boolean tomatoes) {
+        String normalized = StringUtils.normalizeSpace(StringUtils.defaultString(title)).toLowerCase(Locale.ENGLISH);
+        return tomatoes ? normalized + TOMATOES_SUFFIX : normalized;
+    }
+
+    private Entry getLive(String key, long now) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.isEvictable(now)) {
+            entries.remove(key);
+            expirations.incrementAndGet();
+            return null;
+        }
+        return entry;
+    }
+
+    private void store(String key, Entry entry) {
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * A cached OMDb result. A null video marks a title OMDb could not find.
+     */
+    public static final class Entry {
+
+        private final OmdbVideoFull video;
+        private final long expiresAt;
+        private final long evictAt;
+
+        Entry(OmdbVideoFull video, long expiresAt, long evictAt) {
+            this.video = video;
+            this.expiresAt = expiresAt;
+            this.evictAt = evictAt;
+        }
+
+        public OmdbVideoFull getVideo() {
+            return video;
+        }
+
+        public boolean isNotFound() {
+            return video == null;
+        }
+
+        /**
+         * True once the time to live has passed. A stale record should be
+         * refreshed, but may still be served while that happens.
+         */
+        public boolean isStale() {
+            return isStale(System.currentTimeMillis());
+        }
+
+        boolean isStale(long now) {
+            return now >= expiresAt;
+        }
+
+        boolean isEvictable(long now) {
+            return now >= evictAt;
+        }
+    }
+}
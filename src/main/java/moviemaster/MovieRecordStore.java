@@ -0,0 +1,352 @@
+package moviemaster;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Locale;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-only movie records shipped with the deployment, so a cold container
+ * answers the titles it knows without going to OMDb. The file is memory
+ * mapped: records are found by probing hash tables inside the mapping and
+ * comparing the key bytes in place, and only the record that matched is
+ * decoded into a {@link MovieSummary}. The heap holds nothing per record.
+ *
+ * <p>Records are keyed by imdbID and by the {@link TitleIndex#compactKey
+ * compact key} of their title. The file is written by
+ * {@link MovieRecordStoreBuilder}; its layout, all big-endian, is
+ *
+ * <pre>
+ * header   magic "MMRS", version, record count, title and imdbID table
+ *          slot counts and offsets, file length, build time; 64 bytes
+ * records  flags byte, the IMDB and tomato ratings as floats (NaN when
+ *          absent), the release date as epoch day (MIN_VALUE when absent),
+ *          then per field an unsigned short byte length (0xFFFF when
+ *          absent) and the UTF-8 bytes, in the order imdbID, title key,
+ *          title, plot, actors, director, IMDB rating, tomato rating,
+ *          released
+ * tables   open-addressing tables of record offsets, 0 for an empty slot
+ * </pre>
+ *
+ * A file with another version is ignored rather than misread; version 1
+ * stores, without the parsed values, have to be rebuilt. Offsets are ints,
+ * which limits a store to 2 GB.
+ */
+public final class MovieRecordStore {
+
+    private static final Logger log = LoggerFactory.getLogger(MovieRecordStore.class);
+
+    public static final String PATH_PROPERTY = "moviemaster.recordStore";
+    public static final String PATH_ENV = "MOVIEMASTER_RECORD_STORE";
+
+    /** Where a Lambda layer would put the store. */
+    public static final String DEFAULT_PATH = "/opt/moviemaster/movies.mmrs";
+
+    /** Store bundled in the jar; it is copied to a temporary file to be mapped. */
+    public static final String RESOURCE = "/moviemaster/movies.mmrs";
+
+    static final int MAGIC = 0x4D4D5253;
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 64;
+
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int RECORD_COUNT_OFFSET = 8;
+    static final int TITLE_SLOTS_OFFSET = 12;
+    static final int ID_SLOTS_OFFSET = 16;
+    static final int TITLE_TABLE_OFFSET = 20;
+    static final int ID_TABLE_OFFSET = 24;
+    static final int FILE_LENGTH_OFFSET = 28;
+    static final int CREATED_OFFSET = 32;
+
+    static final int FIELD_IMDB_ID = 0;
+    static final int FIELD_TITLE_KEY = 1;
+    static final int FIELD_TITLE = 2;
+    static final int FIELD_PLOT = 3;
+    static final int FIELD_ACTORS = 4;
+    static final int FIELD_DIRECTOR = 5;
+    static final int FIELD_IMDB_RATING = 6;
+    static final int FIELD_TOMATO_RATING = 7;
+    static final int FIELD_RELEASED = 8;
+    static final int FIELD_COUNT = 9;
+
+    static final int FLAG_TOMATOES = 1;
+
+    static final int IMDB_RATING_OFFSET = 1;
+    static final int TOMATO_RATING_OFFSET = 5;
+    static final int RELEASE_DAY_OFFSET = 9;
+    static final int FIELDS_OFFSET = 13;
+
+    static final int NO_RELEASE_DAY = Integer.MIN_VALUE;
+
+    /** Field length of an absent value; longer values are cut below it. */
+    static final int ABSENT = 0xFFFF;
+
+    private static final MovieRecordStore EMPTY = new MovieRecordStore(null, 0, 0, 0, 0, 0, 0L);
+
+    private final ByteBuffer buffer;
+    private final int recordCount;
+    private final int titleSlots;
+    private final int idSlots;
+    private final int titleTable;
+    private final int idTable;
+    private final long createdMillis;
+
+    private MovieRecordStore(ByteBuffer buffer, int recordCount, int titleSlots, int idSlots, int titleTable,
+            int idTable, long createdMillis) {
+        this.buffer = buffer;
+        this.recordCount = recordCount;
+        this.titleSlots = titleSlots;
+        this.idSlots = idSlots;
+        this.titleTable = titleTable;
+        this.idTable = idTable;
+        this.createdMillis = createdMillis;
+    }
+
+    public static MovieRecordStore empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Maps the store at the path set in {@value #PATH_PROPERTY} or
+     * {@value #PATH_ENV}, at {@link #DEFAULT_PATH}, or bundled as
+     * {@link #RESOURCE}, whichever is found first. Without a usable store the
+     * empty one is returned and every lookup goes to OMDb.
+     */
+    public static MovieRecordStore openDefault() {
+        String configured = System.getProperty(PATH_PROPERTY, System.getenv(PATH_ENV));
+        Path path = Paths.get(StringUtils.defaultIfBlank(configured, DEFAULT_PATH));
+        try {
+            if (Files.isRegularFile(path)) {
+                return open(path);
+            }
+            if (configured != null) {
+                log.warn("Record store {} does not exist", path);
+            }
+            try (InputStream input = MovieRecordStore.class.getResourceAsStream(RESOURCE)) {
+                if (input == null) {
+                    return EMPTY;
+                }
+                Path copy = Files.createTempFile("movies", ".mmrs");
+                copy.toFile().deleteOnExit();
+                Files.copy(input, copy, StandardCopyOption.REPLACE_EXISTING);
+                return open(copy);
+            }
+        } catch (IOException e) {
+            log.warn("Could not open the record store, looking every movie up on OMDb", e);
+            return EMPTY;
+        }
+    }
+
+    public static MovieRecordStore open(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is not a record store");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+            throw new IOException(path + " is not a record store");
+        }
+        if (buffer.getInt(VERSION_OFFSET) != VERSION) {
+            throw new IOException(path + " has format version " + buffer.getInt(VERSION_OFFSET) + ", expected "
+                    + VERSION);
+        }
+        int titleSlots = buffer.getInt(TITLE_SLOTS_OFFSET);
+        int idSlots = buffer.getInt(ID_SLOTS_OFFSET);
+        int titleTable = buffer.getInt(TITLE_TABLE_OFFSET);
+        int idTable = buffer.getInt(ID_TABLE_OFFSET);
+        if (buffer.getInt(FILE_LENGTH_OFFSET) != buffer.capacity() || Integer.bitCount(titleSlots) != 1
+                || Integer.bitCount(idSlots) != 1 || titleTable + 4L * titleSlots > buffer.capacity()
+                || idTable + 4L * idSlots > buffer.capacity()) {
+            throw new IOException(path + " is truncated or corrupt");
+        }
+        MovieRecordStore store = new MovieRecordStore(buffer, buffer.getInt(RECORD_COUNT_OFFSET), titleSlots,
+                idSlots, titleTable, idTable, buffer.getLong(CREATED_OFFSET));
+        log.info("Mapped {} movie records from {}", store.size(), path);
+        return store;
+    }
+
+    /**
+     * @param spokenTitle what the user asked for, compared by compact key
+     * @return the movie, or null if the store does not have the title
+     */
+    public MovieSummary findByTitle(String spokenTitle) {
+        if (buffer == null || StringUtils.isBlank(spokenTitle)) {
+            return null;
+        }
+        String key = TitleIndex.compactKey(spokenTitle);
+        if (key.isEmpty()) {
+            return null;
+        }
+        int record = find(titleTable, titleSlots, FIELD_TITLE_KEY, key.getBytes(StandardCharsets.UTF_8));
+        return (record != 0) ? decode(record, spokenTitle) : null;
+    }
+
+    /**
+     * @param spokenTitle kept in the summary as the title the user asked for
+     * @return the movie, or null if the store does not have the imdbID
+     */
+    public MovieSummary findByImdbID(String imdbID, String spokenTitle) {
+        if (buffer == null || StringUtils.isBlank(imdbID)) {
+            return null;
+        }
+        int record = find(idTable, idSlots, FIELD_IMDB_ID, imdbIDKey(imdbID));
+        return (record != 0) ? decode(record, spokenTitle) : null;
+    }
+
+    public int size() {
+        return recordCount;
+    }
+
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "MovieRecordStore[records=" + recordCount + ", bytes=" + ((buffer != null) ? buffer.capacity() : 0)
+                + ']';
+    }
+
+    private int find(int table, int slots, int field, byte[] key) {
+        int mask = slots - 1;
+        int slot = hash(key) & mask;
+        for (int probes = 0; probes < slots; probes++) {
+            int record = buffer.getInt(table + 4 * slot);
+            if (record == 0) {
+                return 0;
+            }
+            if (fieldEquals(buffer, record, field, key)) {
+                return record;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+
+    /**
+     * Calls the visitor with every record a lookup can return, in file
+     * order, skipping those a later record with the same imdbID replaced.
+     */
+    void forEachRecord(RecordVisitor visitor) throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        for (int record = HEADER_BYTES; record < titleTable; ) {
+            int end = recordEnd(buffer, record);
+            if (find(idTable, idSlots, FIELD_IMDB_ID, fieldBytes(buffer, record, FIELD_IMDB_ID)) == record) {
+                visitor.visit(buffer, record, end);
+            }
+            record = end;
+        }
+    }
+
+    boolean containsImdbID(String imdbID) {
+        return buffer != null && find(idTable, idSlots, FIELD_IMDB_ID, imdbIDKey(imdbID)) != 0;
+    }
+
+    private MovieSummary decode(int record, String spokenTitle) {
+        String[] fields = new String[FIELD_COUNT];
+        int position = record + FIELDS_OFFSET;
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            int length = buffer.getShort(position) & 0xFFFF;
+            position += 2;
+            if (length != ABSENT) {
+                byte[] bytes = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    bytes[i] = buffer.get(position + i);
+                }
+                fields[field] = new String(bytes, StandardCharsets.UTF_8);
+                position += length;
+            }
+        }
+        boolean tomatoes = (buffer.get(record) & FLAG_TOMATOES) != 0;
+        int releaseDay = buffer.getInt(record + RELEASE_DAY_OFFSET);
+        return new MovieSummary(StringUtils.defaultIfBlank(spokenTitle, fields[FIELD_TITLE]), fields[FIELD_IMDB_ID],
+                fields[FIELD_TITLE], fields[FIELD_PLOT], fields[FIELD_ACTORS], fields[FIELD_DIRECTOR],
+                fields[FIELD_IMDB_RATING], fields[FIELD_TOMATO_RATING], fields[FIELD_RELEASED], tomatoes,
+                buffer.getFloat(record + IMDB_RATING_OFFSET), buffer.getFloat(record + TOMATO_RATING_OFFSET),
+                (releaseDay != NO_RELEASE_DAY) ? LocalDate.ofEpochDay(releaseDay) : null);
+    }
+
+    static byte[] imdbIDKey(String imdbID) {
+        return imdbID.trim().toLowerCase(Locale.ENGLISH).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** FNV-1a with a final mix, so the low bits used for the slot are spread. */
+    static int hash(byte[] key) {
+        int hash = 0x811C9DC5;
+        for (byte b : key) {
+            hash ^= b & 0xFF;
+            hash *= 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /** Position of the length of the field in the record at the offset. */
+    static int fieldPosition(ByteBuffer buffer, int record, int field) {
+        int position = record + FIELDS_OFFSET;
+        for (int i = 0; i < field; i++) {
+            int length = buffer.getShort(position) & 0xFFFF;
+            position += 2 + ((length != ABSENT) ? length : 0);
+        }
+        return position;
+    }
+
+    /** Copies the bytes of the field, none if it is absent. */
+    static byte[] fieldBytes(ByteBuffer buffer, int record, int field) {
+        int position = fieldPosition(buffer, record, field);
+        int length = buffer.getShort(position) & 0xFFFF;
+        byte[] bytes = new byte[(length != ABSENT) ? length : 0];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(position + 2 + i);
+        }
+        return bytes;
+    }
+
+    /** Decodes the field, null if it is absent. */
+    static String fieldString(ByteBuffer buffer, int record, int field) {
+        int length = buffer.getShort(fieldPosition(buffer, record, field)) & 0xFFFF;
+        return (length != ABSENT) ? new String(fieldBytes(buffer, record, field), StandardCharsets.UTF_8) : null;
+    }
+
+    /** Compares the field with the key in place. */
+    static boolean fieldEquals(ByteBuffer buffer, int record, int field, byte[] key) {
+        int position = fieldPosition(buffer, record, field);
+        if ((buffer.getShort(position) & 0xFFFF) != key.length) {
+            return false;
+        }
+        position += 2;
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(position + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Offset just past the record. */
+    static int recordEnd(ByteBuffer buffer, int record) {
+        return fieldPosition(buffer, record, FIELD_COUNT);
+    }
+
+    /** Receives records in place, see {@link #forEachRecord}. */
+    interface RecordVisitor {
+        void visit(ByteBuffer buffer, int record, int end) throws IOException;
+    }
+}
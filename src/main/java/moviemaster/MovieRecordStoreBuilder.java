@@ -0,0 +1,256 @@
+package moviemaster;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Writes a {@link MovieRecordStore} file. Records are streamed to disk as
+ * they are added, so the builder holds nothing per record; the hash tables
+ * are built at the end by reading the records back through a mapping.
+ *
+ * <p>A record added again with the same imdbID replaces the earlier one.
+ * Only the records left after that are entered by title, and of those with
+ * the same title key the last one wins. The file is written next to the
+ * target and moved into place once complete, so a reader never maps half a
+ * store.
+ *
+ * <p>{@link #encode} is thread-safe, so callers such as {@link CatalogIngest}
+ * can encode records in parallel and only append them here in order.
+ */
+public final class MovieRecordStoreBuilder implements Closeable {
+
+    private final Path target;
+    private final Path partial;
+    private final DataOutputStream output;
+
+    private long position = MovieRecordStore.HEADER_BYTES;
+    private int recordCount;
+    private int liveRecords;
+    private int skipped;
+    private boolean finished;
+
+    public MovieRecordStoreBuilder(Path target) throws IOException {
+        this.target = target.toAbsolutePath();
+        this.partial = this.target.resolveSibling(this.target.getFileName() + ".partial");
+        this.output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partial), 1 << 16));
+        output.write(new byte[MovieRecordStore.HEADER_BYTES]);
+    }
+
+    /**
+     * Appends the movie. Movies without an imdbID or title cannot be looked
+     * up and are skipped.
+     *
+     * @return false if the movie was skipped
+     */
+    public boolean add(MovieSummary movie) throws IOException {
+        byte[] record = encode(movie);
+        if (record == null) {
+            skipped++;
+            return false;
+        }
+        addEncoded(record);
+        return true;
+    }
+
+    /** Appends a record made by {@link #encode}. */
+    public void addEncoded(byte[] record) throws IOException {
+        checkSize(record.length);
+        output.write(record);
+        position += record.length;
+        recordCount++;
+    }
+
+    /** Appends a record of another store as it is, without decoding it. */
+    void addRaw(ByteBuffer source, int record, int end) throws IOException {
+        checkSize(end - record);
+        ByteBuffer bytes = source.duplicate();
+        bytes.limit(end).position(record);
+        byte[] chunk = new byte[end - record];
+        bytes.get(chunk);
+        output.write(chunk);
+        position += chunk.length;
+        recordCount++;
+    }
+
+    private void checkSize(int length) throws IOException {
+        if (position + length > Integer.MAX_VALUE / 2) {
+            throw new IOException("Record store would exceed " + (Integer.MAX_VALUE / 2) + " bytes of records");
+        }
+    }
+
+    /**
+     * Encodes the movie as a store record.
+     *
+     * @return the record, or null if the movie has no imdbID or title
+     */
+    public static byte[] encode(MovieSummary movie) {
+        String titleKey = (movie.getTitle() != null) ? TitleIndex.compactKey(movie.getTitle()) : "";
+        if (StringUtils.isBlank(movie.getImdbID()) || titleKey.isEmpty()) {
+            return null;
+        }
+        byte[][] fields = new byte[MovieRecordStore.FIELD_COUNT][];
+        fields[MovieRecordStore.FIELD_IMDB_ID] = MovieRecordStore.imdbIDKey(movie.getImdbID());
+        fields[MovieRecordStore.FIELD_TITLE_KEY] = titleKey.getBytes(StandardCharsets.UTF_8);
+        fields[MovieRecordStore.FIELD_TITLE] = bytes(movie.getTitle());
+        fields[MovieRecordStore.FIELD_PLOT] = bytes(movie.getPlot());
+        fields[MovieRecordStore.FIELD_ACTORS] = bytes(movie.getActors());
+        fields[MovieRecordStore.FIELD_DIRECTOR] = bytes(movie.getDirector());
+        fields[MovieRecordStore.FIELD_IMDB_RATING] = bytes(movie.getImdbRating());
+        fields[MovieRecordStore.FIELD_TOMATO_RATING] = bytes(movie.getTomatoRating());
+        fields[MovieRecordStore.FIELD_RELEASED] = bytes(movie.getReleased());
+        int length = MovieRecordStore.FIELDS_OFFSET;
+        for (byte[] field : fields) {
+            length += 2 + ((field != null) ? field.length : 0);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length);
+        try (DataOutputStream record = new DataOutputStream(bytes)) {
+            record.writeByte(movie.hasTomatoes() ? MovieRecordStore.FLAG_TOMATOES : 0);
+            record.writeFloat(movie.getImdbRatingValue());
+            record.writeFloat(movie.getTomatoRatingValue());
+            record.writeInt((movie.getReleaseDate() != null) ? (int) movie.getReleaseDate().toEpochDay()
+                    : MovieRecordStore.NO_RELEASE_DAY);
+            for (byte[] field : fields) {
+                if (field == null) {
+                    record.writeShort(MovieRecordStore.ABSENT);
+                } else {
+                    record.writeShort(field.length);
+                    record.write(field);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write to memory", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the tables and the header and moves the store into place.
+     *
+     * @return the number of records in the store, not counting replaced ones
+     */
+    public int finish() throws IOException {
+        output.close();
+        int recordsEnd = (int) position;
+        int titleSlots = slotsFor(recordCount);
+        int idSlots = titleSlots;
+        if (recordsEnd + 8L * titleSlots > Integer.MAX_VALUE) {
+            throw new IOException("Record store would exceed 2 GB with " + recordCount + " records");
+        }
+        int[] titleTable = new int[titleSlots];
+        int[] idTable = new int[idSlots];
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, 0, recordsEnd);
+            for (int record = MovieRecordStore.HEADER_BYTES; record < recordsEnd;
+                    record = MovieRecordStore.recordEnd(records, record)) {
+                if (insert(records, idTable, MovieRecordStore.FIELD_IMDB_ID, record)) {
+                    liveRecords++;
+                }
+            }
+            // a record replaced under its imdbID must not be found by its old title
+            for (int record = MovieRecordStore.HEADER_BYTES; record < recordsEnd;
+                    record = MovieRecordStore.recordEnd(records, record)) {
+                if (idTable[slotOf(records, idTable, MovieRecordStore.FIELD_IMDB_ID, record)] == record) {
+                    insert(records, titleTable, MovieRecordStore.FIELD_TITLE_KEY, record);
+                }
+            }
+            int titleTableOffset = recordsEnd;
+            int idTableOffset = titleTableOffset + 4 * titleSlots;
+            int fileLength = idTableOffset + 4 * idSlots;
+            ByteBuffer tables = ByteBuffer.allocate(fileLength - recordsEnd);
+            tables.asIntBuffer().put(titleTable).put(idTable);
+            channel.write(tables, recordsEnd);
+            ByteBuffer header = ByteBuffer.allocate(MovieRecordStore.HEADER_BYTES);
+            header.putInt(MovieRecordStore.MAGIC_OFFSET, MovieRecordStore.MAGIC)
+                    .putInt(MovieRecordStore.VERSION_OFFSET, MovieRecordStore.VERSION)
+                    .putInt(MovieRecordStore.RECORD_COUNT_OFFSET, liveRecords)
+                    .putInt(MovieRecordStore.TITLE_SLOTS_OFFSET, titleSlots)
+                    .putInt(MovieRecordStore.ID_SLOTS_OFFSET, idSlots)
+                    .putInt(MovieRecordStore.TITLE_TABLE_OFFSET, titleTableOffset)
+                    .putInt(MovieRecordStore.ID_TABLE_OFFSET, idTableOffset)
+                    .putInt(MovieRecordStore.FILE_LENGTH_OFFSET, fileLength)
+                    .putLong(MovieRecordStore.CREATED_OFFSET, System.currentTimeMillis());
+            channel.write(header, 0);
+            channel.force(true);
+        }
+        Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        finished = true;
+        return liveRecords;
+    }
+
+    /** Records appended so far, including those a later one replaces. */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    /** Drops the partial file if {@link #finish()} was not reached. */
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            output.close();
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    /**
+     * Puts the record into the table, replacing an earlier record with the
+     * same key.
+     *
+     * @return false if it replaced one
+     */
+    private static boolean insert(ByteBuffer records, int[] table, int field, int record) {
+        int slot = slotOf(records, table, field, record);
+        boolean added = table[slot] == 0;
+        table[slot] = record;
+        return added;
+    }
+
+    /** The slot holding the record's key, or the empty slot it would go into. */
+    private static int slotOf(ByteBuffer records, int[] table, int field, int record) {
+        byte[] key = MovieRecordStore.fieldBytes(records, record, field);
+        int mask = table.length - 1;
+        int slot = MovieRecordStore.hash(key) & mask;
+        while (table[slot] != 0 && !MovieRecordStore.fieldEquals(records, table[slot], field, key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /** Power of two keeping the tables at most half full. */
+    private static int slotsFor(int records) {
+        return Math.max(16, Integer.highestOneBit(Math.max(1, records) * 2 - 1) << 1);
+    }
+
+    /** UTF-8 bytes, cut at a character boundary below {@link MovieRecordStore#ABSENT}. */
+    private static byte[] bytes(String value) {
+        if (value == null) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length < MovieRecordStore.ABSENT) {
+            return bytes;
+        }
+        int length = MovieRecordStore.ABSENT - 1;
+        while ((bytes[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        return Arrays.copyOf(bytes, length);
+    }
+}
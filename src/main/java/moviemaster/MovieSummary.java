@@ -0,0 +1,231 @@
+package moviemaster;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.omertron.omdbapi.model.OmdbVideoFull;
+
+/**
+ * Compact projection of the OMDb fields the intent handlers read. It is small
+ * enough to be kept in the session attributes, so follow-up intents about the
+ * same movie can be answered without another OMDb round trip.
+ *
+ * <p>OMDb's "N/A" placeholders become null here, once, and the ratings and
+ * release date are parsed when the summary is made, so the handlers only
+ * check for absent values and never parse.
+ */
+public class MovieSummary {
+
+    private static final String ATTR_SPOKEN_TITLE = "spokenTitle";
+    private static final String ATTR_IMDB_ID = "imdbID";
+    private static final String ATTR_TITLE = "title";
+    private static final String ATTR_PLOT = "plot";
+    private static final String ATTR_ACTORS = "actors";
+    private static final String ATTR_DIRECTOR = "director";
+    private static final String ATTR_IMDB_RATING = "imdbRating";
+    private static final String ATTR_TOMATO_RATING = "tomatoRating";
+    private static final String ATTR_RELEASED = "released";
+    private static final String ATTR_TOMATOES = "tomatoes";
+
+    static final DateTimeFormatter RELEASE_DATE_FORMAT = DateTimeFormatter.ofPattern("dd MMM yyyy", Locale.ENGLISH);
+
+    private static final String NOT_AVAILABLE = "N/A";
+
+    private final String spokenTitle;
+    private final String imdbID;
+    private final String title;
+    private final String plot;
+    private final String actors;
+    private final String director;
+    private final String imdbRating;
+    private final String tomatoRating;
+    private final String released;
+    private final boolean tomatoes;
+    private final float imdbRatingValue;
+    private final float tomatoRatingValue;
+    private final LocalDate releaseDate;
+
+    public MovieSummary(String spokenTitle, String imdbID, String title, String plot, String actors,
+            String director, String imdbRating, String tomatoRating, String released, boolean tomatoes) {
+        this(spokenTitle, available(imdbID), available(title), available(plot), available(actors),
+                available(director), available(imdbRating), available(tomatoRating), available(released), tomatoes,
+                parseRating(imdbRating), parseRating(tomatoRating), parseReleaseDate(released));
+    }
+
+    /**
+     * Takes the values as they are, already normalized and parsed, as the
+     * record store keeps them.
+     */
+    MovieSummary(String spokenTitle, String imdbID, String title, String plot, String actors, String director,
+            String imdbRating, String tomatoRating, String released, boolean tomatoes, float imdbRatingValue,
+            float tomatoRatingValue, LocalDate releaseDate) {
+        this.spokenTitle = spokenTitle;
+        this.imdbID = imdbID;
+        this.title = title;
+        this.plot = plot;
+        this.actors = actors;
+        this.director = director;
+        this.imdbRating = imdbRating;
+        this.tomatoRating = tomatoRating;
+        this.released = released;
+        this.tomatoes = tomatoes;
+        this.imdbRatingValue = imdbRatingValue;
+        this.tomatoRatingValue = tomatoRatingValue;
+        this.releaseDate = releaseDate;
+    }
+
+    public static MovieSummary from(String spokenTitle, OmdbVideoFull video, boolean tomatoes) {
+        return new MovieSummary(spokenTitle, video.getImdbID(), video.getTitle(), video.getPlot(),
+                video.getActors(), video.getDirector(), video.getImdbRating(),
+                tomatoes ? video.getTomatoRating() : null, video.getReleased(), tomatoes);
+    }
+
+    /**
+     * Rebuilds a summary from a session attribute value. Returns null when the
+     * value is missing or was not written by {@link #toAttributes()}.
+     */
+    @SuppressWarnings("unchecked")
+    public static MovieSummary fromAttributes(Object value) {
+        if (!(value instanceof Map)) {
+            return null;
+        }
+        Map<String, Object> attributes = (Map<String, Object>) value;
+        if (attributes.get(ATTR_TITLE) == null) {
+            return null;
+        }
+        return new MovieSummary(string(attributes, ATTR_SPOKEN_TITLE), string(attributes, ATTR_IMDB_ID),
+                string(attributes, ATTR_TITLE), string(attributes, ATTR_PLOT), string(attributes, ATTR_ACTORS),
+                string(attributes, ATTR_DIRECTOR), string(attributes, ATTR_IMDB_RATING),
+                string(attributes, ATTR_TOMATO_RATING), string(attributes, ATTR_RELEASED),
+                Boolean.parseBoolean(string(attributes, ATTR_TOMATOES)));
+    }
+
+    public Map<String, Object> toAttributes() {
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put(ATTR_SPOKEN_TITLE, spokenTitle);
+        attributes.put(ATTR_IMDB_ID, imdbID);
+        attributes.put(ATTR_TITLE, title);
+        attributes.put(ATTR_PLOT, plot);
+        attributes.put(ATTR_ACTORS, actors);
+        attributes.put(ATTR_DIRECTOR, director);
+        attributes.put(ATTR_IMDB_RATING, imdbRating);
+        attributes.put(ATTR_TOMATO_RATING, tomatoRating);
+        attributes.put(ATTR_RELEASED, released);
+        attributes.put(ATTR_TOMATOES, String.valueOf(tomatoes));
+        return attributes;
+    }
+
+    /**
+     * True when the spoken title refers to this movie, either as it was first
+     * asked for or by its OMDb title.
+     */
+    public boolean matches(String movieTitle) {
+        String key = MovieRecordCache.key(movieTitle, false);
+        return key.equals(MovieRecordCache.key(spokenTitle, false)) || key.equals(MovieRecordCache.key(title, false));
+    }
+
+    public String getSpokenTitle() {
+        return spokenTitle;
+    }
+
+    public String getImdbID() {
+        return imdbID;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getPlot() {
+        return plot;
+    }
+
+    public String getActors() {
+        return actors;
+    }
+
+    public String getDirector() {
+        return director;
+    }
+
+    public String getImdbRating() {
+        return imdbRating;
+    }
+
+    public String getTomatoRating() {
+        return tomatoRating;
+    }
+
+    public String getReleased() {
+        return released;
+    }
+
+    /** @return the IMDB rating, or NaN if there is none */
+    public float getImdbRatingValue() {
+        return imdbRatingValue;
+    }
+
+    public boolean hasImdbRating() {
+        return !Float.isNaN(imdbRatingValue);
+    }
+
+    /** @return the Rotten Tomatoes rating, or NaN if there is none */
+    public float getTomatoRatingValue() {
+        return tomatoRatingValue;
+    }
+
+    public boolean hasTomatoRating() {
+        return !Float.isNaN(tomatoRatingValue);
+    }
+
+    /** @return the release date, or null if OMDb has none */
+    public LocalDate getReleaseDate() {
+        return releaseDate;
+    }
+
+    /**
+     * True when the record was fetched with tomatoes on, so the Rotten
+     * Tomatoes rating is known (possibly as N/A).
+     */
+    public boolean hasTomatoes() {
+        return tomatoes;
+    }
+
+    /** @return the value, or null for a blank value or OMDb's "N/A" */
+    static String available(String value) {
+        return (StringUtils.isBlank(value) || NOT_AVAILABLE.equalsIgnoreCase(value.trim())) ? null : value;
+    }
+
+    static float parseRating(String rating) {
+        if (available(rating) == null) {
+            return Float.NaN;
+        }
+        try {
+            return Float.parseFloat(rating.trim());
+        } catch (NumberFormatException e) {
+            return Float.NaN;
+        }
+    }
+
+    static LocalDate parseReleaseDate(String released) {
+        if (available(released) == null) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(released.trim(), RELEASE_DATE_FORMAT);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static String string(Map<String, Object> attributes, String name) {
+        Object value = attributes.get(name);
+        return (value != null) ? value.toString() : null;
+    }
+}
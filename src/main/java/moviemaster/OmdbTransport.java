@@ -0,0 +1,225 @@
+package moviemaster;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.HttpConnectionFactory;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.omertron.omdbapi.OmdbApi;
+
+/**
+ * HTTP transport of the OMDb client. The library's default client keeps at
+ * most two connections per host and no request timeouts, so concurrent
+ * lookups queued for a connection and a stalled OMDb held a thread for as
+ * long as the socket stayed open.
+ *
+ * <p>This one pools up to {@link #MAX_CONNECTIONS_PROPERTY} keep-alive
+ * connections, keeps idle ones for {@link #KEEP_ALIVE_MILLIS} unless the
+ * server says otherwise, asks for gzip and decodes it, and bounds every call
+ * by a connect, a pool wait and a read timeout. It counts requests, opened
+ * connections and the body bytes as they came over the wire and after
+ * decoding, so the saving of reused connections and compression shows in
+ * the metrics.
+ */
+public class OmdbTransport implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(OmdbTransport.class);
+
+    public static final String MAX_CONNECTIONS_PROPERTY = "moviemaster.omdb.maxConnections";
+    public static final String CONNECT_TIMEOUT_PROPERTY = "moviemaster.omdb.connectTimeoutMillis";
+    public static final String READ_TIMEOUT_PROPERTY = "moviemaster.omdb.readTimeoutMillis";
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 64;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 2500;
+
+    /** Time a lookup waits for a pooled connection when all are busy. */
+    public static final int POOL_TIMEOUT_MILLIS = 500;
+
+    /** Idle time after which a pooled connection is closed, unless OMDb sends a shorter Keep-Alive. */
+    public static final long KEEP_ALIVE_MILLIS = 30000L;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder wireBytes = new LongAdder();
+    private final LongAdder decodedBytes = new LongAdder();
+
+    /** Reads the limits from the system properties. */
+    public OmdbTransport() {
+        this(Integer.getInteger(MAX_CONNECTIONS_PROPERTY, DEFAULT_MAX_CONNECTIONS),
+                Integer.getInteger(CONNECT_TIMEOUT_PROPERTY, DEFAULT_CONNECT_TIMEOUT_MILLIS),
+                Integer.getInteger(READ_TIMEOUT_PROPERTY, DEFAULT_READ_TIMEOUT_MILLIS));
+    }
+
+    /**
+     * @param maxConnections pooled connections, all of them to OMDb
+     * @param readTimeoutMillis longest silence while waiting for the answer
+     */
+    public OmdbTransport(int maxConnections, int connectTimeoutMillis, int readTimeoutMillis) {
+        HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection> countingFactory = (route, config) -> {
+            connectionsOpened.increment();
+            return ManagedHttpClientConnectionFactory.INSTANCE.create(route, config);
+        };
+        this.connectionManager = new PoolingHttpClientConnectionManager(
+                RegistryBuilder.<ConnectionSocketFactory> create()
+                        .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                        .register("https", SSLConnectionSocketFactory.getSocketFactory()).build(),
+                countingFactory, null, null, KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        connectionManager.setValidateAfterInactivity(2000);
+        RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(connectTimeoutMillis)
+                .setConnectionRequestTimeout(POOL_TIMEOUT_MILLIS).setSocketTimeout(readTimeoutMillis)
+                .setContentCompressionEnabled(true).build();
+        this.httpClient = HttpClientBuilder.create().setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig).setKeepAliveStrategy(OmdbTransport::keepAliveMillis)
+                .evictExpiredConnections().evictIdleConnections(KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS)
+                .addInterceptorFirst((HttpRequest request, HttpContext context) -> requests.increment())
+                .addInterceptorFirst((HttpResponse response, HttpContext context) -> countBody(response, wireBytes))
+                .addInterceptorLast((HttpResponse response, HttpContext context) -> countBody(response, decodedBytes))
+                .disableCookieManagement().build();
+    }
+
+    private static long keepAliveMillis(HttpResponse response, HttpContext context) {
+        long serverMillis = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+        return (serverMillis > 0) ? Math.min(serverMillis, KEEP_ALIVE_MILLIS) : KEEP_ALIVE_MILLIS;
+    }
+
+    /**
+     * Counts the body as it is read. Registered first, the interceptor sees
+     * the entity before the gzip decoding wraps it; registered last, after.
+     */
+    private static void countBody(HttpResponse response, final LongAdder bytes) {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return;
+        }
+        response.setEntity(new HttpEntityWrapper(entity) {
+            @Override
+            public InputStream getContent() throws IOException {
+                return new CountingInputStream(super.getContent(), bytes);
+            }
+        });
+    }
+
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * OMDb client on the pool. Connections idle in the pool are closed
+     * first, so a client created after a snapshot restore does not pick up a
+     * socket that was open at the checkpoint.
+     */
+    public OmdbApi newOmdbApi() {
+        connectionManager.closeIdleConnections(0L, TimeUnit.MILLISECONDS);
+        return new OmdbApi(httpClient);
+    }
+
+    /** Reports the request, connection and byte counters on every flush. */
+    public void registerMetrics(SkillMetrics metrics) {
+        metrics.registerCounter("Omdb.httpRequests", requests::sum);
+        metrics.registerCounter("Omdb.connectionsOpened", connectionsOpened::sum);
+        metrics.registerCounter("Omdb.wireBytes", wireBytes::sum);
+        metrics.registerCounter("Omdb.decodedBytes", decodedBytes::sum);
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getConnectionsOpened() {
+        return connectionsOpened.sum();
+    }
+
+    /** Requests that went out on a connection some earlier request had opened. */
+    public long getReusedConnections() {
+        return Math.max(0L, requests.sum() - connectionsOpened.sum());
+    }
+
+    public long getWireBytes() {
+        return wireBytes.sum();
+    }
+
+    public long getDecodedBytes() {
+        return decodedBytes.sum();
+    }
+
+    @Override
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            log.debug("Could not close the OMDb connections", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "OmdbTransport[requests=" + getRequests() + ", connectionsOpened=" + getConnectionsOpened()
+                + ", wireBytes=" + getWireBytes() + ", decodedBytes=" + getDecodedBytes() + ", "
+                + connectionManager.getTotalStats() + ']';
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private final LongAdder bytes;
+
+        CountingInputStream(InputStream input, LongAdder bytes) {
+            super(input);
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                bytes.increment();
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                bytes.add(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            bytes.add(skipped);
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package moviemaster;
+
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.omertron.omdbapi.model.OmdbVideoFull;
+
+/**
+ * In-memory reverse index from directors and actors to their movies, so
+ * "what movies did Coppola direct" is answered without OMDb, which cannot
+ * search by person. It grows from every movie the skill resolves and from
+ * the record store.
+ *
+ * <p>Movies and people are numbered as they are added. Each name is kept as
+ * one string however many movies list it, and the movies of a person are a
+ * sorted {@code int} array per role. People are found by their full name or
+ * by their last name alone, accents and punctuation ignored.
+ */
+public class PersonIndex {
+
+    /** The credit a person is looked up by. */
+    public enum Role {
+        DIRECTOR,
+        ACTOR
+    }
+
+    private static final Pattern NAME_SEPARATOR = Pattern.compile("\\s*,\\s*");
+
+    /** OMDb annotates some credits, as in "Ash Brannon (co-director)". */
+    private static final Pattern CREDIT_NOTE = Pattern.compile("\\s*\\([^)]*\\)");
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, Integer> movieByImdbID = new HashMap<String, Integer>();
+    private final List<String> movieTitles = new ArrayList<String>();
+    private final List<String> movieImdbIDs = new ArrayList<String>();
+    private float[] movieRatings = new float[16];
+
+    private final Map<String, Integer> personByKey = new HashMap<String, Integer>();
+    private final Map<String, Postings> personsByLastName = new HashMap<String, Postings>();
+    private final List<String> personNames = new ArrayList<String>();
+    private final List<String> personKeys = new ArrayList<String>();
+    private Postings[] directed = new Postings[16];
+    private Postings[] acted = new Postings[16];
+
+    public void register(OmdbVideoFull video) {
+        register(video.getImdbID(), video.getTitle(), MovieSummary.available(video.getDirector()),
+                MovieSummary.available(video.getActors()), MovieSummary.parseRating(video.getImdbRating()));
+    }
+
+    public void register(MovieSummary movie) {
+        register(movie.getImdbID(), movie.getTitle(), movie.getDirector(), movie.getActors(),
+                movie.getImdbRatingValue());
+    }
+
+    /**
+     * Adds the movie with its credits. A movie registered again only has its
+     * title and rating updated.
+     *
+     * @param directors comma separated, as OMDb lists them, may be null
+     * @param actors comma separated, may be null
+     * @param imdbRating NaN if unknown
+     */
+    public void register(String imdbID, String title, String directors, String actors, float imdbRating) {
+        if (StringUtils.isBlank(imdbID) || StringUtils.isBlank(title)) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            String idKey = imdbID.trim().toLowerCase(Locale.ENGLISH);
+            Integer existing = movieByImdbID.get(idKey);
+            if (existing != null) {
+                movieTitles.set(existing, title);
+                movieRatings[existing] = imdbRating;
+                return;
+            }
+            int movie = movieTitles.size();
+            movieByImdbID.put(idKey, movie);
+            movieTitles.add(title);
+            movieImdbIDs.add(imdbID);
+            if (movie == movieRatings.length) {
+                movieRatings = Arrays.copyOf(movieRatings, movie * 2);
+            }
+            movieRatings[movie] = imdbRating;
+            addCredits(directors, Role.DIRECTOR, movie);
+            addCredits(actors, Role.ACTOR, movie);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Adds every movie of the store. */
+    public void registerAll(MovieRecordStore store) {
+        try {
+            store.forEachRecord((buffer, record, end) -> register(
+                    MovieRecordStore.fieldString(buffer, record, MovieRecordStore.FIELD_IMDB_ID),
+                    MovieRecordStore.fieldString(buffer, record, MovieRecordStore.FIELD_TITLE),
+                    MovieRecordStore.fieldString(buffer, record, MovieRecordStore.FIELD_DIRECTOR),
+                    MovieRecordStore.fieldString(buffer, record, MovieRecordStore.FIELD_ACTORS),
+                    buffer.getFloat(record + MovieRecordStore.IMDB_RATING_OFFSET)));
+        } catch (IOException e) {
+            throw new IllegalStateException("Reading the mapped store failed", e);
+        }
+    }
+
+    /**
+     * Looks up the movies of a person, best rated first.
+     *
+     * @param limit most movies to return
+     * @return the person's movies in that role, or null if none are known
+     */
+    public Filmography find(String spokenName, Role role, int limit) {
+        String key = personKey(spokenName);
+        if (key.isEmpty()) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            Postings[] byRole = postings(role);
+            int person = resolvePerson(key, byRole);
+            if (person < 0) {
+                return null;
+            }
+            Postings movies = byRole[person];
+            int[] top = topRated(movies, Math.min(limit, movies.size));
+            List<Movie> result = new ArrayList<Movie>(top.length);
+            for (int movie : top) {
+                result.add(new Movie(movieTitles.get(movie), movieImdbIDs.get(movie), movieRatings[movie]));
+            }
+            return new Filmography(personNames.get(person), role, movies.size, result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Number of movies indexed. */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return movieTitles.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getPersonCount() {
+        lock.readLock().lock();
+        try {
+            return personNames.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void addCredits(String names, Role role, int movie) {
+        if (StringUtils.isBlank(names)) {
+            return;
+        }
+        for (String name : NAME_SEPARATOR.split(CREDIT_NOTE.matcher(names).replaceAll(""))) {
+            String key = personKey(name);
+            if (key.isEmpty()) {
+                continue;
+            }
+            Integer person = personByKey.get(key);
+            if (person == null) {
+                person = personNames.size();
+                personByKey.put(key, person);
+                personNames.add(name.trim());
+                personKeys.add(key);
+                if (person == directed.length) {
+                    directed = Arrays.copyOf(directed, person * 2);
+                    acted = Arrays.copyOf(acted, person * 2);
+                }
+                String lastName = key.substring(key.lastIndexOf(' ') + 1);
+                Postings namesakes = personsByLastName.get(lastName);
+                if (namesakes == null) {
+                    namesakes = new Postings();
+                    personsByLastName.put(lastName, namesakes);
+                }
+                namesakes.add(person);
+            }
+            Postings[] byRole = postings(role);
+            if (byRole[person] == null) {
+                byRole[person] = new Postings();
+            }
+            byRole[person].add(movie);
+        }
+    }
+
+    private Postings[] postings(Role role) {
+        return (role == Role.DIRECTOR) ? directed : acted;
+    }
+
+    /**
+     * The person with the full name, or else the one with the most movies in
+     * the role among those whose name has every word that was said, as when
+     * only the last name is asked for.
+     */
+    private int resolvePerson(String key, Postings[] byRole) {
+        Integer person = personByKey.get(key);
+        if (person != null && byRole[person] != null) {
+            return person;
+        }
+        String[] words = StringUtils.split(key, ' ');
+        Postings namesakes = personsByLastName.get(words[words.length - 1]);
+        if (namesakes == null) {
+            return -1;
+        }
+        int best = -1;
+        for (int i = 0; i < namesakes.size; i++) {
+            int candidate = namesakes.ids[i];
+            if (byRole[candidate] == null || (best >= 0 && byRole[candidate].size <= byRole[best].size)) {
+                continue;
+            }
+            String candidateKey = " " + personKeys.get(candidate) + " ";
+            boolean hasAllWords = true;
+            for (String word : words) {
+                hasAllWords &= candidateKey.contains(" " + word + " ");
+            }
+            if (hasAllWords) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    /** The best rated movies, unrated ones last. */
+    private int[] topRated(Postings movies, int count) {
+        int[] top = new int[count];
+        int size = 0;
+        for (int i = 0; i < movies.size; i++) {
+            int movie = movies.ids[i];
+            int position = size;
+            while (position > 0 && rankedBefore(movie, top[position - 1])) {
+                position--;
+            }
+            if (position < count) {
+                System.arraycopy(top, position, top, position + 1, Math.min(size, count - 1) - position);
+                top[position] = movie;
+                size = Math.min(size + 1, count);
+            }
+        }
+        return top;
+    }
+
+    private boolean rankedBefore(int movie, int other) {
+        float rating = movieRatings[movie];
+        float otherRating = movieRatings[other];
+        return !Float.isNaN(rating) && (Float.isNaN(otherRating) || rating > otherRating);
+    }
+
+    /**
+     * Lower case words of letters and digits, accents removed, as in
+     * "francis ford coppola".
+     */
+    static String personKey(String name) {
+        String plain = MARKS.matcher(Normalizer.normalize(StringUtils.defaultString(name), Normalizer.Form.NFD))
+                .replaceAll("").toLowerCase(Locale.ENGLISH);
+        StringBuilder key = new StringBuilder(plain.length());
+        for (int i = 0; i < plain.length(); i++) {
+            char c = plain.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                key.append(c);
+            } else if (c != '\'' && c != '.' && key.length() > 0 && key.charAt(key.length() - 1) != ' ') {
+                key.append(' ');
+            }
+        }
+        return key.toString().trim();
+    }
+
+    /**
+     * Movies of one person in one role.
+     */
+    public static final class Filmography {
+
+        private final String personName;
+        private final Role role;
+        private final int movieCount;
+        private final List<Movie> movies;
+
+        Filmography(String personName, Role role, int movieCount, List<Movie> movies) {
+            this.personName = personName;
+            this.role = role;
+            this.movieCount = movieCount;
+            this.movies = Collections.unmodifiableList(movies);
+        }
+
+        /** The name as OMDb spells it. */
+        public String getPersonName() {
+            return personName;
+        }
+
+        public Role getRole() {
+            return role;
+        }
+
+        /** All movies known for the person, not only those returned. */
+        public int getMovieCount() {
+            return movieCount;
+        }
+
+        /** Best rated first. */
+        public List<Movie> getMovies() {
+            return movies;
+        }
+    }
+
+    public static final class Movie {
+
+        private final String title;
+        private final String imdbID;
+        private final float imdbRating;
+
+        Movie(String title, String imdbID, float imdbRating) {
+            this.title = title;
+            this.imdbID = imdbID;
+            this.imdbRating = imdbRating;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getImdbID() {
+            return imdbID;
+        }
+
+        /** @return the rating, or NaN if there is none */
+        public float getImdbRating() {
+            return imdbRating;
+        }
+    }
+
+    private static final class Postings {
+
+        private int[] ids = new int[2];
+        private int size;
+
+        /** Ids arrive in increasing order, a repeated one is a name listed twice. */
+        void add(int id) {
+            if (size > 0 && ids[size - 1] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package moviemaster;
+
+import com.amazon.speech.speechlet.SpeechletResponse;
+import com.amazon.speech.ui.PlainTextOutputSpeech;
+import com.amazon.speech.ui.Reprompt;
+import com.amazon.speech.ui.SimpleCard;
+import com.amazon.speech.ui.SsmlOutputSpeech;
+
+/**
+ * Renders the speech and the card of a response in one pass. Every line goes
+ * to the speech as an SSML paragraph and to the card as plain text. Text is
+ * escaped for SSML as it is written, so an OMDb title or plot containing an
+ * {@code &}, {@code <} or a quote no longer produces invalid SSML.
+ *
+ * <p>Each thread reuses its own buffers from one request to the next. A
+ * renderer from {@link #begin()} is only valid until the same thread calls
+ * {@code begin()} again.
+ */
+final class ResponseRenderer {
+
+    private static final String SPEAK_OPEN = "<speak>";
+    private static final String SPEAK_CLOSE = "</speak>";
+    private static final String PARAGRAPH_OPEN = "<p>";
+    private static final String PARAGRAPH_CLOSE = "</p> ";
+
+    /** A buffer grown past this by an unusually long plot is not kept for the next request. */
+    private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+
+    private static final ThreadLocal<ResponseRenderer> RENDERERS = new ThreadLocal<ResponseRenderer>() {
+        @Override
+        protected ResponseRenderer initialValue() {
+            return new ResponseRenderer();
+        }
+    };
+
+    private final StringBuilder speech = new StringBuilder(1024);
+    private final StringBuilder card = new StringBuilder(512);
+    private int lines;
+
+    private ResponseRenderer() {
+    }
+
+    /**
+     * Returns the calling thread's renderer, emptied for a new response.
+     */
+    static ResponseRenderer begin() {
+        ResponseRenderer renderer = RENDERERS.get();
+        if (renderer.speech.capacity() > MAX_RETAINED_CAPACITY || renderer.card.capacity() > MAX_RETAINED_CAPACITY) {
+            renderer = new ResponseRenderer();
+            RENDERERS.set(renderer);
+        }
+        renderer.speech.setLength(0);
+        renderer.speech.append(SPEAK_OPEN);
+        renderer.card.setLength(0);
+        renderer.lines = 0;
+        return renderer;
+    }
+
+    ResponseRenderer line(String text) {
+        return line(text, null, null);
+    }
+
+    ResponseRenderer line(String prefix, String value) {
+        return line(prefix, value, null);
+    }
+
+    /**
+     * Writes one line. Null parts are skipped.
+     */
+    ResponseRenderer line(String prefix, String value, String suffix) {
+        speech.append(PARAGRAPH_OPEN);
+        appendText(prefix);
+        appendText(value);
+        appendText(suffix);
+        speech.append(PARAGRAPH_CLOSE);
+        card.append(' ');
+        lines++;
+        return this;
+    }
+
+    ResponseRenderer line(String prefix, int value, String suffix) {
+        speech.append(PARAGRAPH_OPEN);
+        appendText(prefix);
+        speech.append(value);
+        card.append(value);
+        appendText(suffix);
+        speech.append(PARAGRAPH_CLOSE);
+        card.append(' ');
+        lines++;
+        return this;
+    }
+
+    int lineCount() {
+        return lines;
+    }
+
+    /**
+     * Finishes the response as a question with a card, keeping the session
+     * open for the next intent.
+     */
+    SpeechletResponse ask(String cardTitle, Reprompt reprompt) {
+        SimpleCard simpleCard = new SimpleCard();
+        simpleCard.setTitle(cardTitle);
+        simpleCard.setContent(card.toString());
+        SpeechletResponse response = SpeechletResponse.newAskResponse(finishSpeech(), reprompt);
+        response.setCard(simpleCard);
+        return response;
+    }
+
+    /**
+     * Finishes the response as a final answer without a card.
+     */
+    SpeechletResponse tell() {
+        return SpeechletResponse.newTellResponse(finishSpeech());
+    }
+
+    private SsmlOutputSpeech finishSpeech() {
+        speech.append(SPEAK_CLOSE);
+        SsmlOutputSpeech outputSpeech = new SsmlOutputSpeech();
+        outputSpeech.setSsml(speech.toString());
+        return outputSpeech;
+    }
+
+    private void appendText(String text) {
+        if (text != null) {
+            escapeSsml(text, speech);
+            card.append(text);
+        }
+    }
+
+    /**
+     * Appends the text with the characters that are markup in SSML replaced by
+     * entities. Runs of plain characters are copied in one call.
+     */
+    static void escapeSsml(String text, StringBuilder target) {
+        int start = 0;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            String entity;
+            switch (text.charAt(i)) {
+            case '&':
+                entity = "&amp;";
+                break;
+            case '<':
+                entity = "&lt;";
+                break;
+            case '>':
+                entity = "&gt;";
+                break;
+            case '"':
+                entity = "&quot;";
+                break;
+            case '\'':
+                entity = "&apos;";
+                break;
+            default:
+                continue;
+            }
+            target.append(text, start, i).append(entity);
+            start = i + 1;
+        }
+        target.append(text, start, text.length());
+    }
+
+    static PlainTextOutputSpeech plainText(String text) {
+        PlainTextOutputSpeech outputSpeech = new PlainTextOutputSpeech();
+        outputSpeech.setText(text);
+        return outputSpeech;
+    }
+
+    static Reprompt reprompt(String text) {
+        Reprompt reprompt = new Reprompt();
+        reprompt.setOutputSpeech(plainText(text));
+        return reprompt;
+    }
+
+    /**
+     * Builds a constant question. The response is shared by every request
+     * answering with it and must not be changed afterwards.
+     */
+    static SpeechletResponse constantAsk(String text, Reprompt reprompt) {
+        return SpeechletResponse.newAskResponse(plainText(text), reprompt);
+    }
+
+    /**
+     * Builds a constant answer from plain text, see {@link #constantAsk}.
+     */
+    static SpeechletResponse constantTell(String text) {
+        return SpeechletResponse.newTellResponse(plainText(text));
+    }
+
+    /**
+     * Builds a constant answer spoken as a single SSML paragraph, see
+     * {@link #constantAsk}.
+     */
+    static SpeechletResponse constantSsmlTell(String paragraph) {
+        StringBuilder ssml = new StringBuilder(SPEAK_OPEN).append(PARAGRAPH_OPEN);
+        escapeSsml(paragraph, ssml);
+        SsmlOutputSpeech outputSpeech = new SsmlOutputSpeech();
+        outputSpeech.setSsml(ssml.append(PARAGRAPH_CLOSE).append(SPEAK_CLOSE).toString());
+        return SpeechletResponse.newTellResponse(outputSpeech);
+    }
+}
@@ -0,0 +1,81 @@
+package moviemaster;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls for the same key into one upstream call. The
+ * first caller for a key starts the call; callers arriving while it is in
+ * flight get the same future and share its result or failure. The in-flight
+ * map is a {@link ConcurrentHashMap}, so callers for different keys never
+ * contend.
+ *
+ * <p>Each caller waits on the shared future with its own timeout. A caller
+ * that gives up does not cancel the call, which still completes for the
+ * others and can fill a cache in the background.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<K, CompletableFuture<V>>();
+
+    private final AtomicLong upstreamCalls = new AtomicLong();
+    private final AtomicLong coalescedCalls = new AtomicLong();
+
+    /**
+     * Returns the future of the call in flight for the key, starting one with
+     * {@code call} if there is none.
+     */
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> existing = inFlight.get(key);
+        if (existing != null) {
+            coalescedCalls.incrementAndGet();
+            return existing;
+        }
+        final CompletableFuture<V> flight = new CompletableFuture<V>();
+        existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            coalescedCalls.incrementAndGet();
+            return existing;
+        }
+        upstreamCalls.incrementAndGet();
+        CompletableFuture<V> upstream;
+        try {
+            upstream = call.get();
+        } catch (RuntimeException e) {
+            upstream = new CompletableFuture<V>();
+            upstream.completeExceptionally(e);
+        }
+        upstream.whenComplete((value, failure) -> {
+            inFlight.remove(key, flight);
+            if (failure != null) {
+                flight.completeExceptionally(failure);
+            } else {
+                flight.complete(value);
+            }
+        });
+        return flight;
+    }
+
+    /** Number of calls that actually went upstream. */
+    public long getUpstreamCalls() {
+        return upstreamCalls.get();
+    }
+
+    /** Number of upstream calls saved by joining a call already in flight. */
+    public long getCoalescedCalls() {
+        return coalescedCalls.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    @Override
+    public String toString() {
+        return "SingleFlight[upstream=" + upstreamCalls.get() + ", coalesced=" + coalescedCalls.get()
+                + ", inFlight=" + inFlight.size() + "]";
+    }
+}
@@ -0,0 +1,221 @@
+package moviemaster;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters and latency histograms of the skill. Recording is lock-free:
+ * counters are {@link LongAdder}s, and latencies go into a lifetime
+ * {@link LatencyHistogram} and into the samples of the current interval.
+ *
+ * <p>{@link #flush} closes the interval. It renders everything recorded since
+ * the previous flush as one line in CloudWatch embedded metric format (EMF),
+ * which the handler logs once per invocation. Each latency metric carries at
+ * most {@link #MAX_INTERVAL_SAMPLES} samples per interval, the EMF limit for
+ * one value array. A sample recorded while a flush runs may land in either
+ * interval.
+ */
+public class SkillMetrics {
+
+    public static final String NAMESPACE = "MovieMaster";
+
+    static final int MAX_INTERVAL_SAMPLES = 100;
+
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+
+    private final ConcurrentMap<String, CounterSource> counterSources = new ConcurrentHashMap<String, CounterSource>();
+
+    public void recordLatency(String name, long nanos) {
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            timer = timers.computeIfAbsent(name, key -> new Timer());
+        }
+        timer.record(nanos);
+    }
+
+    public void increment(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(name, key -> new Counter());
+        }
+        counter.increment();
+    }
+
+    /**
+     * Reports a counter kept elsewhere, such as the record cache hits. The
+     * supplier returns the running total; each flush reports the increase
+     * since the previous one.
+     */
+    public void registerCounter(String name, LongSupplier total) {
+        counterSources.put(name, new CounterSource(total));
+    }
+
+    /** Latencies recorded under the name since startup, or null if there are none. */
+    public LatencyHistogram getLatency(String name) {
+        Timer timer = timers.get(name);
+        return (timer != null) ? timer.lifetime : null;
+    }
+
+    public long getCount(String name) {
+        Counter counter = counters.get(name);
+        return (counter != null) ? counter.total.sum() : 0L;
+    }
+
+    /**
+     * Drops what was recorded in the current interval, for example the
+     * synthetic requests that primed the skill.
+     */
+    public void resetInterval() {
+        flush(System.currentTimeMillis(), null);
+    }
+
+    /**
+     * Closes the interval and renders it as an EMF JSON document.
+     *
+     * @param properties extra top-level members such as the request id, may be null
+     * @return the document, or null if nothing was recorded in the interval
+     */
+    public String flush(long timestampMillis, Map<String, String> properties) {
+        StringBuilder definitions = new StringBuilder(512);
+        StringBuilder values = new StringBuilder(512);
+        for (Map.Entry<String, Timer> timer : timers.entrySet()) {
+            Samples samples = timer.getValue().interval.getAndSet(new Samples());
+            int size = Math.min(samples.size.get(), MAX_INTERVAL_SAMPLES);
+            if (size == 0) {
+                continue;
+            }
+            appendDefinition(definitions, timer.getKey(), "Milliseconds");
+            values.append(",\"").append(timer.getKey()).append("\":[");
+            for (int i = 0; i < size; i++) {
+                if (i > 0) {
+                    values.append(',');
+                }
+                values.append(samples.nanos.get(i) / 1000 / 1000d);
+            }
+            values.append(']');
+        }
+        for (Map.Entry<String, Counter> counter : counters.entrySet()) {
+            appendCount(definitions, values, counter.getKey(), counter.getValue().interval.sumThenReset());
+        }
+        for (Map.Entry<String, CounterSource> source : counterSources.entrySet()) {
+            appendCount(definitions, values, source.getKey(), source.getValue().delta());
+        }
+        if (definitions.length() == 0) {
+            return null;
+        }
+        StringBuilder document = new StringBuilder(definitions.length() + values.length() + 256);
+        document.append("{\"_aws\":{\"Timestamp\":").append(timestampMillis)
+                .append(",\"CloudWatchMetrics\":[{\"Namespace\":\"").append(NAMESPACE)
+                .append("\",\"Dimensions\":[[\"Service\"]],\"Metrics\":[").append(definitions)
+                .append("]}]},\"Service\":\"").append(NAMESPACE).append('"');
+        if (properties != null) {
+            for (Map.Entry<String, String> property : properties.entrySet()) {
+                document.append(",\"");
+                appendJsonString(document, property.getKey());
+                document.append("\":\"");
+                appendJsonString(document, property.getValue());
+                document.append('"');
+            }
+        }
+        return document.append(values).append('}').toString();
+    }
+
+    private static void appendCount(StringBuilder definitions, StringBuilder values, String name, long count) {
+        if (count == 0) {
+            return;
+        }
+        appendDefinition(definitions, name, "Count");
+        values.append(",\"").append(name).append("\":").append(count);
+    }
+
+    private static void appendDefinition(StringBuilder definitions, String name, String unit) {
+        if (definitions.length() > 0) {
+            definitions.append(',');
+        }
+        definitions.append("{\"Name\":\"").append(name).append("\",\"Unit\":\"").append(unit).append("\"}");
+    }
+
+    private static void appendJsonString(StringBuilder target, String value) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                target.append('\\').append(c);
+            } else if (c < 0x20) {
+                target.append(String.format("\\u%04x", (int) c));
+            } else {
+                target.append(c);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("SkillMetrics[");
+        for (Map.Entry<String, Timer> timer : timers.entrySet()) {
+            text.append(timer.getKey()).append(": ").append(timer.getValue().lifetime).append("; ");
+        }
+        for (Map.Entry<String, Counter> counter : counters.entrySet()) {
+            text.append(counter.getKey()).append('=').append(counter.getValue().total.sum()).append("; ");
+        }
+        return text.append(']').toString();
+    }
+
+    private static final class Timer {
+
+        final LatencyHistogram lifetime = new LatencyHistogram();
+        final AtomicReference<Samples> interval = new AtomicReference<Samples>(new Samples());
+
+        void record(long nanos) {
+            lifetime.record(nanos);
+            Samples samples = interval.get();
+            int index = samples.size.getAndIncrement();
+            if (index < MAX_INTERVAL_SAMPLES) {
+                samples.nanos.set(index, nanos);
+            }
+        }
+    }
+
+    private static final class Samples {
+
+        final AtomicLongArray nanos = new AtomicLongArray(MAX_INTERVAL_SAMPLES);
+        final AtomicInteger size = new AtomicInteger();
+    }
+
+    private static final class Counter {
+
+        final LongAdder total = new LongAdder();
+        final LongAdder interval = new LongAdder();
+
+        void increment() {
+            total.increment();
+            interval.increment();
+        }
+    }
+
+    private static final class CounterSource {
+
+        final LongSupplier total;
+        final AtomicLong flushed = new AtomicLong();
+
+        CounterSource(LongSupplier total) {
+            this.total = total;
+        }
+
+        long delta() {
+            long current = total.getAsLong();
+            return current - flushed.getAndSet(current);
+        }
+    }
+}
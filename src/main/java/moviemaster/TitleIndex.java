@@ -0,0 +1,441 @@
+package moviemaster;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory index that maps what Alexa heard to a known movie before any
+ * network call. A spoken title is reduced to a compact key (lower case, no
+ * punctuation, articles or spaces, numbers as digits), so "the god father"
+ * and "The Godfather" share a key. Titles that still differ are matched on a
+ * consonant skeleton of that key and finally on trigram similarity.
+ *
+ * <p>Only a key match is certain enough to replace the spoken title before
+ * OMDb is asked. A near miss is as likely to be a different movie, so the
+ * fuzzy matches are for titles OMDb did not find, and never pair titles whose
+ * numbers differ, such as "alien 3" and "Alien".
+ *
+ * <p>The index is seeded from the {@code titles.tsv} resource and grows from
+ * every successful OMDb lookup.
+ */
+public class TitleIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(TitleIndex.class);
+
+    public static final String SEED_RESOURCE = "/moviemaster/titles.tsv";
+
+    /** Minimum Dice coefficient of the trigram sets for a fuzzy match. */
+    static final double MIN_SIMILARITY = 0.7;
+
+    /** Shorter consonant skeletons are too ambiguous to identify a movie. */
+    static final int MIN_PHONETIC_KEY_LENGTH = 4;
+
+    /** A fuzzy lookup that would have to scan more postings than this gives up. */
+    static final int MAX_CANDIDATE_POSTINGS = 20000;
+
+    private static final String[] NUMBER_WORDS = { "zero", "one", "two", "three", "four", "five", "six", "seven",
+            "eight", "nine", "ten", "eleven", "twelve", "thirteen", "fourteen", "fifteen", "sixteen", "seventeen",
+            "eighteen", "nineteen", "twenty" };
+
+    private static final String[] ROMAN_NUMERALS = { null, null, "ii", "iii", "iv", "v", "vi", "vii", "viii", "ix" };
+
+    private static final Map<String, String> TOKEN_REPLACEMENTS = new HashMap<String, String>();
+
+    static {
+        for (int i = 0; i < NUMBER_WORDS.length; i++) {
+            TOKEN_REPLACEMENTS.put(NUMBER_WORDS[i], String.valueOf(i));
+        }
+        for (int i = 0; i < ROMAN_NUMERALS.length; i++) {
+            if (ROMAN_NUMERALS[i] != null) {
+                TOKEN_REPLACEMENTS.put(ROMAN_NUMERALS[i], String.valueOf(i));
+            }
+        }
+        TOKEN_REPLACEMENTS.put("first", "1");
+        TOKEN_REPLACEMENTS.put("second", "2");
+        TOKEN_REPLACEMENTS.put("third", "3");
+        TOKEN_REPLACEMENTS.put("and", "");
+        TOKEN_REPLACEMENTS.put("the", "");
+        TOKEN_REPLACEMENTS.put("a", "");
+        TOKEN_REPLACEMENTS.put("an", "");
+        TOKEN_REPLACEMENTS.put("part", "");
+        TOKEN_REPLACEMENTS.put("movie", "");
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final List<String> titles = new ArrayList<String>();
+    private final List<String> imdbIDs = new ArrayList<String>();
+    private int[] trigramCounts = new int[16];
+    private final Map<String, Integer> byImdbID = new HashMap<String, Integer>();
+    private final Map<String, Integer> byCompactKey = new HashMap<String, Integer>();
+    private final Map<String, Integer> byPhoneticKey = new HashMap<String, Integer>();
+    private final Map<Integer, Postings> byTrigram = new HashMap<Integer, Postings>();
+
+    /**
+     * Creates an index seeded with the titles bundled in {@link #SEED_RESOURCE}.
+     */
+    public static TitleIndex withSeedTitles() {
+        TitleIndex index = new TitleIndex();
+        InputStream input = TitleIndex.class.getResourceAsStream(SEED_RESOURCE);
+        if (input == null) {
+            return index;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab > 0 && !line.startsWith("#")) {
+                    index.register(line.substring(tab + 1), line.substring(0, tab));
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not read seed titles from {}", SEED_RESOURCE, e);
+        }
+        return index;
+    }
+
+    /**
+     * Adds a canonical title. Registering an imdbID again adds the title as
+     * another spoken variant of the same movie.
+     */
+    public void register(String title, String imdbID) {
+        if (StringUtils.isBlank(title) || StringUtils.isBlank(imdbID)) {
+            return;
+        }
+        String compactKey = compactKey(title);
+        if (compactKey.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Integer existing = byCompactKey.get(compactKey);
+            if (existing != null && imdbID.equals(imdbIDs.get(existing))) {
+                return;
+            }
+            Integer id = byImdbID.get(imdbID);
+            if (id == null) {
+                id = titles.size();
+                titles.add(title);
+                imdbIDs.add(imdbID);
+                int[] trigrams = trigrams(compactKey);
+                if (id == trigramCounts.length) {
+                    trigramCounts = Arrays.copyOf(trigramCounts, id * 2);
+                }
+                trigramCounts[id] = trigrams.length;
+                for (int trigram : trigrams) {
+                    Postings postings = byTrigram.get(trigram);
+                    if (postings == null) {
+                        postings = new Postings();
+                        byTrigram.put(trigram, postings);
+                    }
+                    postings.add(id);
+                }
+                byImdbID.put(imdbID, id);
+            }
+            byCompactKey.put(compactKey, id);
+            String phoneticKey = phoneticKey(compactKey);
+            if (phoneticKey.length() >= MIN_PHONETIC_KEY_LENGTH) {
+                byPhoneticKey.put(phoneticKey, id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Resolves a spoken title with the same compact key as a known title, or
+     * returns null.
+     */
+    public Match resolveExact(String spokenTitle) {
+        String compactKey = compactKey(spokenTitle);
+        if (compactKey.isEmpty()) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            Integer id = byCompactKey.get(compactKey);
+            return (id != null) ? match(id, 1.0) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Resolves a spoken title to the closest known movie by its consonant
+     * skeleton or trigram similarity, or returns null when nothing is close
+     * enough. Known titles with other numbers than the spoken one are skipped.
+     */
+    public Match resolveFuzzy(String spokenTitle) {
+        String compactKey = compactKey(spokenTitle);
+        if (compactKey.isEmpty()) {
+            return null;
+        }
+        String numbers = numbers(compactKey);
+        lock.readLock().lock();
+        try {
+            Integer id = byPhoneticKey.get(phoneticKey(compactKey));
+            if (id != null && hasNumbers(id, numbers)) {
+                return match(id, 0.9);
+            }
+            return resolveByTrigrams(compactKey, numbers);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return titles.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Fuzzy match on the Dice coefficient of the trigram sets. A title can
+     * only reach {@link #MIN_SIMILARITY} if it shares one of the query's
+     * rarest trigrams, so candidates are collected from those postings alone
+     * and then checked against the remaining ones by binary search, dropping
+     * each as soon as it can no longer reach the threshold.
+     */
+    private Match resolveByTrigrams(String compactKey, String numbers) {
+        int[] queryTrigrams = trigrams(compactKey);
+        final Postings[] postings = new Postings[queryTrigrams.length];
+        Integer[] order = new Integer[queryTrigrams.length];
+        for (int i = 0; i < queryTrigrams.length; i++) {
+            postings[i] = byTrigram.get(queryTrigrams[i]);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(sizeOf(postings[a]), sizeOf(postings[b])));
+
+        int minShared = (int) Math.ceil(MIN_SIMILARITY * queryTrigrams.length / (2 - MIN_SIMILARITY));
+        int prefixLength = queryTrigrams.length - minShared + 1;
+        int[] candidates = new int[16];
+        int scanned = 0;
+        for (int i = 0; i < prefixLength; i++) {
+            Postings prefix = postings[order[i]];
+            if (prefix == null) {
+                continue;
+            }
+            if (scanned + prefix.size > MAX_CANDIDATE_POSTINGS) {
+                return null;
+            }
+            if (scanned + prefix.size > candidates.length) {
+                candidates = Arrays.copyOf(candidates, Math.max(candidates.length * 2, scanned + prefix.size));
+            }
+            System.arraycopy(prefix.ids, 0, candidates, scanned, prefix.size);
+            scanned += prefix.size;
+        }
+        Arrays.sort(candidates, 0, scanned);
+
+        int bestId = -1;
+        double bestScore = MIN_SIMILARITY;
+        int start = 0;
+        while (start < scanned) {
+            int id = candidates[start];
+            int end = start + 1;
+            while (end < scanned && candidates[end] == id) {
+                end++;
+            }
+            int count = end - start;
+            start = end;
+            int required = (int) Math.ceil(MIN_SIMILARITY * (queryTrigrams.length + trigramCounts[id]) / 2);
+            for (int i = prefixLength; i < order.length && count + order.length - i >= required; i++) {
+                Postings remaining = postings[order[i]];
+                if (remaining != null && Arrays.binarySearch(remaining.ids, 0, remaining.size, id) >= 0) {
+                    count++;
+                }
+            }
+            if (count < required) {
+                continue;
+            }
+            double score = 2.0 * count / (queryTrigrams.length + trigramCounts[id]);
+            if (score > bestScore && hasNumbers(id, numbers)) {
+                bestId = id;
+                bestScore = score;
+            }
+        }
+        return (bestId >= 0) ? match(bestId, bestScore) : null;
+    }
+
+    private static int sizeOf(Postings postings) {
+        return (postings != null) ? postings.size : 0;
+    }
+
+    private boolean hasNumbers(int id, String numbers) {
+        return numbers.equals(numbers(compactKey(titles.get(id))));
+    }
+
+    private Match match(int id, double score) {
+        return new Match(titles.get(id), imdbIDs.get(id), score);
+    }
+
+    /**
+     * Lower case, alphanumerics only, articles and filler words dropped,
+     * number words and roman numerals turned into digits, no spaces.
+     */
+    static String compactKey(String title) {
+        StringBuilder key = new StringBuilder();
+        StringBuilder token = new StringBuilder();
+        String lower = StringUtils.defaultString(title).toLowerCase(Locale.ENGLISH);
+        for (int i = 0; i <= lower.length(); i++) {
+            char c = (i < lower.length()) ? lower.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                token.append(c);
+            } else if (c != '\'' && token.length() > 0) {
+                String word = token.toString();
+                String replacement = TOKEN_REPLACEMENTS.get(word);
+                key.append(replacement != null ? replacement : word);
+                token.setLength(0);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * The runs of digits in a compact key, space separated, such as "3" for
+     * "alien3". Number words and roman numerals are digits by then.
+     */
+    static String numbers(String compactKey) {
+        StringBuilder numbers = new StringBuilder();
+        boolean inNumber = false;
+        for (int i = 0; i < compactKey.length(); i++) {
+            char c = compactKey.charAt(i);
+            boolean digit = c >= '0' && c <= '9';
+            if (digit) {
+                if (!inNumber && numbers.length() > 0) {
+                    numbers.append(' ');
+                }
+                numbers.append(c);
+            }
+            inNumber = digit;
+        }
+        return numbers.toString();
+    }
+
+    /**
+     * Consonant skeleton of a compact key: soundalike letters are folded,
+     * vowels dropped and repeated letters collapsed. A leading vowel is kept
+     * as a single marker, since ASR often gets its exact sound wrong.
+     */
+    static String phoneticKey(String compactKey) {
+        StringBuilder key = new StringBuilder(compactKey.length());
+        char previous = 0;
+        for (int i = 0; i < compactKey.length(); i++) {
+            char c = compactKey.charAt(i);
+            if (c == 'p' && i + 1 < compactKey.length() && compactKey.charAt(i + 1) == 'h') {
+                c = 'f';
+                i++;
+            }
+            char folded;
+            switch (c) {
+            case 'c':
+            case 'q':
+                folded = 'k';
+                break;
+            case 'z':
+                folded = 's';
+                break;
+            case 'v':
+                folded = 'f';
+                break;
+            case 'a':
+            case 'e':
+            case 'i':
+            case 'o':
+            case 'u':
+            case 'y':
+            case 'h':
+            case 'w':
+                folded = (i == 0) ? 'a' : 0;
+                break;
+            default:
+                folded = c;
+            }
+            if (folded != 0 && folded != previous) {
+                key.append(folded);
+            }
+            if (folded != 0) {
+                previous = folded;
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Distinct trigrams of the key, padded at both ends and packed into ints.
+     */
+    static int[] trigrams(String compactKey) {
+        String padded = "  " + compactKey + " ";
+        int[] trigrams = new int[padded.length() - 2];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = (padded.charAt(i) << 16) ^ (padded.charAt(i + 1) << 8) ^ padded.charAt(i + 2);
+        }
+        Arrays.sort(trigrams);
+        int distinct = 0;
+        for (int i = 0; i < trigrams.length; i++) {
+            if (i == 0 || trigrams[i] != trigrams[i - 1]) {
+                trigrams[distinct++] = trigrams[i];
+            }
+        }
+        return Arrays.copyOf(trigrams, distinct);
+    }
+
+    /**
+     * A resolved title. The score is 1 for an exact key match, 0.9 for a
+     * phonetic one and the trigram similarity for a fuzzy one.
+     */
+    public static final class Match {
+
+        private final String title;
+        private final String imdbID;
+        private final double score;
+
+        Match(String title, String imdbID, double score) {
+            this.title = title;
+            this.imdbID = imdbID;
+            this.score = score;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getImdbID() {
+            return imdbID;
+        }
+
+        public double getScore() {
+            return score;
+        }
+    }
+
+    private static final class Postings {
+
+        private int[] ids = new int[4];
+        private int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+}
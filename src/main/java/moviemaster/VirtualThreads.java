@@ -0,0 +1,45 @@
+package moviemaster;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates executors that run every task on a new virtual thread. The skill
+ * still builds for Java 8, so the Java 21 API is reached through reflection,
+ * and callers fall back to platform threads when it is missing.
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return an executor starting one virtual thread per task, or null on a
+     *         JVM without virtual threads
+     */
+    static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        ThreadFactory factory = newFactory(namePrefix);
+        if (factory == null) {
+            return null;
+        }
+        try {
+            Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newExecutor.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory newFactory(String namePrefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
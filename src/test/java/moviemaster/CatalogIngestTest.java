@@ -0,0 +1,175 @@
+package moviemaster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CatalogIngestTest {
+
+    private static final String ALIEN = record("tt0078748", "Alien", "In space no one can hear you scream.");
+    private static final String HEAT = record("tt0113277", "Heat", "A heist in Los Angeles.");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final CatalogIngest ingest = new CatalogIngest(2);
+
+    @Test
+    public void ingestSkipsErrorResponsesAndMalformedLines() throws IOException {
+        Path store = path("movies.mmrs");
+
+        CatalogIngest.Report report = ingest.ingest(
+                write("dump.jsonl", ALIEN, "", "{\"Response\":\"False\",\"Error\":\"Movie not found!\"}",
+                        "not json", "{\"Title\":\"No imdbID\"}", HEAT),
+                store);
+
+        assertEquals(5, report.getLines());
+        assertEquals(3, report.getSkipped());
+        assertEquals(2, report.getAdded());
+        assertEquals(2, report.getRecords());
+        MovieRecordStore movies = MovieRecordStore.open(store);
+        assertEquals("Alien", movies.findByImdbID("tt0078748", null).getTitle());
+        assertEquals("tt0113277", movies.findByTitle("heat").getImdbID());
+    }
+
+    @Test
+    public void ingestReadsGzippedDumpsAcrossBatches() throws IOException {
+        String[] lines = new String[CatalogIngest.BATCH_SIZE * 2 + 10];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = record("tt" + (1000000 + i), "Movie number " + i + " x", "Plot " + i);
+        }
+        Path dump = path("dump.jsonl.gz");
+        try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(dump))) {
+            output.write(String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+        }
+        Path store = path("movies.mmrs");
+
+        assertEquals(lines.length, ingest.ingest(dump, store).getRecords());
+        MovieRecordStore movies = MovieRecordStore.open(store);
+        assertEquals("Plot 1500", movies.findByTitle("movie number 1500 x").getPlot());
+    }
+
+    @Test
+    public void ingestSkipsNestedValuesAndDropsNotAvailable() throws IOException {
+        Path store = path("movies.mmrs");
+
+        ingest.ingest(write("dump.jsonl", "{\"Ratings\":[{\"Source\":\"IMDb\",\"Value\":\"8.5/10\"}],"
+                + "\"imdbID\":\"tt0078748\",\"Title\":\"Alien\",\"Plot\":\"N/A\","
+                + "\"Extra\":{\"Title\":\"Other\"},\"Director\":\"Ridley Scott\"}"), store);
+
+        MovieSummary alien = MovieRecordStore.open(store).findByImdbID("tt0078748", null);
+        assertEquals("Alien", alien.getTitle());
+        assertEquals("Ridley Scott", alien.getDirector());
+        assertNull(alien.getPlot());
+    }
+
+    @Test
+    public void deltaAddsReplacesDeletesAndCopiesTheRest() throws IOException {
+        Path base = base(ALIEN, HEAT);
+        Path store = path("next.mmrs");
+
+        CatalogIngest.Report report = ingest.applyDelta(base,
+                write("delta.jsonl", record("tt0078748", "Alien", "New plot."), deleted("tt0113277"),
+                        record("tt0133093", "The Matrix", "Red pill.")),
+                store);
+
+        assertEquals(1, report.getAdded());
+        assertEquals(1, report.getReplaced());
+        assertEquals(1, report.getDeleted());
+        assertEquals(0, report.getCopied());
+        assertEquals(2, report.getRecords());
+        MovieRecordStore movies = MovieRecordStore.open(store);
+        assertEquals("New plot.", movies.findByImdbID("tt0078748", null).getPlot());
+        assertNull(movies.findByImdbID("tt0113277", null));
+        assertNull(movies.findByTitle("heat"));
+        assertEquals("tt0133093", movies.findByTitle("matrix").getImdbID());
+    }
+
+    @Test
+    public void addThenDeleteOfOneMovieInADeltaDeletesIt() throws IOException {
+        Path base = base(ALIEN, HEAT);
+        Path store = path("next.mmrs");
+
+        CatalogIngest.Report report = ingest.applyDelta(base, write("delta.jsonl",
+                record("tt0078748", "Alien", "Changed."), deleted("tt0078748"),
+                record("tt0133093", "The Matrix", "Red pill."), deleted("tt0133093")), store);
+
+        assertEquals(0, report.getAdded());
+        assertEquals(0, report.getReplaced());
+        assertEquals(1, report.getDeleted());
+        assertEquals(1, report.getCopied());
+        assertEquals(1, report.getRecords());
+        MovieRecordStore movies = MovieRecordStore.open(store);
+        assertNull(movies.findByImdbID("tt0078748", null));
+        assertNull(movies.findByTitle("alien"));
+        assertNull(movies.findByImdbID("tt0133093", null));
+        assertEquals("Heat", movies.findByImdbID("tt0113277", null).getTitle());
+    }
+
+    @Test
+    public void deleteThenAddOfOneMovieInADeltaKeepsTheAddedRecord() throws IOException {
+        Path base = base(ALIEN, HEAT);
+        Path store = path("next.mmrs");
+
+        CatalogIngest.Report report = ingest.applyDelta(base, write("delta.jsonl",
+                deleted("tt0078748"), record("tt0078748", "Alien", "Back again."),
+                deleted("tt0133093"), record("tt0133093", "The Matrix", "Red pill.")), store);
+
+        assertEquals(1, report.getAdded());
+        assertEquals(1, report.getReplaced());
+        assertEquals(0, report.getDeleted());
+        assertEquals(3, report.getRecords());
+        MovieRecordStore movies = MovieRecordStore.open(store);
+        assertEquals("Back again.", movies.findByImdbID("tt0078748", null).getPlot());
+        assertEquals("Back again.", movies.findByTitle("alien").getPlot());
+        assertEquals("Red pill.", movies.findByImdbID("tt0133093", null).getPlot());
+    }
+
+    @Test
+    public void deltaCanReplaceTheBaseStoreInPlace() throws IOException {
+        Path base = base(ALIEN);
+
+        ingest.applyDelta(base, write("delta.jsonl", HEAT), base);
+
+        MovieRecordStore movies = MovieRecordStore.open(base);
+        assertEquals(2, movies.size());
+        assertNotNull(movies.findByTitle("alien"));
+        assertNotNull(movies.findByTitle("heat"));
+    }
+
+    private Path base(String... records) throws IOException {
+        Path base = path("base.mmrs");
+        ingest.ingest(write("base.jsonl", records), base);
+        return base;
+    }
+
+    private Path write(String name, String... lines) throws IOException {
+        return Files.write(path(name), Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+
+    private Path path(String name) {
+        return folder.getRoot().toPath().resolve(name);
+    }
+
+    private static String record(String imdbID, String title, String plot) {
+        return "{\"Title\":\"" + title + "\",\"Plot\":\"" + plot + "\",\"Director\":\"Someone\","
+                + "\"imdbRating\":\"8.0\",\"Released\":\"01 Jan 2000\",\"imdbID\":\"" + imdbID
+                + "\",\"Response\":\"True\"}";
+    }
+
+    private static String deleted(String imdbID) {
+        return "{\"imdbID\":\"" + imdbID + "\",\"Deleted\":\"True\"}";
+    }
+}
@@ -0,0 +1,95 @@
+package moviemaster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    private static final long OPEN_MILLIS = 50L;
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(3, OPEN_MILLIS);
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+
+        breaker.recordFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertEquals(1, breaker.getTrips());
+    }
+
+    @Test
+    public void successResetsTheFailureCount() {
+        CircuitBreaker breaker = new CircuitBreaker(3, OPEN_MILLIS);
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void letsOneTrialCallThroughAfterTheOpenPeriod() throws InterruptedException {
+        CircuitBreaker breaker = open(new CircuitBreaker(1, OPEN_MILLIS));
+        Thread.sleep(OPEN_MILLIS + 10);
+
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void successfulTrialCallCloses() throws InterruptedException {
+        CircuitBreaker breaker = open(new CircuitBreaker(1, OPEN_MILLIS));
+        Thread.sleep(OPEN_MILLIS + 10);
+        assertTrue(breaker.allowRequest());
+
+        breaker.recordSuccess();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void failedTrialCallReopens() throws InterruptedException {
+        CircuitBreaker breaker = open(new CircuitBreaker(5, OPEN_MILLIS));
+        Thread.sleep(OPEN_MILLIS + 10);
+        assertTrue(breaker.allowRequest());
+
+        breaker.recordFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertEquals(2, breaker.getTrips());
+    }
+
+    @Test
+    public void lostTrialCallIsReplacedAfterAnotherOpenPeriod() throws InterruptedException {
+        CircuitBreaker breaker = open(new CircuitBreaker(1, OPEN_MILLIS));
+        Thread.sleep(OPEN_MILLIS + 10);
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+
+        Thread.sleep(OPEN_MILLIS + 10);
+
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    private static CircuitBreaker open(CircuitBreaker breaker) {
+        while (breaker.getState() != CircuitBreaker.State.OPEN) {
+            breaker.recordFailure();
+        }
+        return breaker;
+    }
+}
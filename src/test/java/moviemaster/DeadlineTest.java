@@ -0,0 +1,56 @@
+package moviemaster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DeadlineTest {
+
+    @Test
+    public void countsDownFromTheBudget() throws InterruptedException {
+        Deadline deadline = Deadline.after(1000L);
+        long before = deadline.remainingMillis();
+        Thread.sleep(20L);
+
+        assertTrue(before <= 1000L);
+        assertTrue(deadline.remainingMillis() < before);
+        assertFalse(deadline.isExpired());
+    }
+
+    @Test
+    public void expiresOnceTheBudgetIsSpent() throws InterruptedException {
+        Deadline deadline = Deadline.after(10L);
+        Thread.sleep(20L);
+
+        assertTrue(deadline.isExpired());
+        assertEquals(0L, deadline.remainingMillis());
+    }
+
+    @Test
+    public void emptyBudgetIsExpiredRightAway() {
+        assertTrue(Deadline.after(0L).isExpired());
+        assertEquals(0L, Deadline.after(-5L).remainingMillis());
+    }
+
+    @Test
+    public void shareLeavesTimeForTheLaterSteps() {
+        Deadline deadline = Deadline.after(1000L);
+        Deadline first = deadline.share(2);
+
+        assertTrue(first.remainingMillis() <= 500L);
+        assertTrue(first.remainingMillis() > 400L);
+        assertTrue(deadline.remainingMillis() > 900L);
+    }
+
+    @Test
+    public void expiredDeadlineIsNotShared() throws InterruptedException {
+        Deadline deadline = Deadline.after(5L);
+        Thread.sleep(10L);
+
+        assertTrue(deadline.share(2).isExpired());
+        assertSame(deadline, deadline.share(2));
+    }
+}
@@ -0,0 +1,53 @@
+package moviemaster;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.yamj.api.common.exception.ApiExceptionType;
+
+import com.omertron.omdbapi.OMDBException;
+import com.omertron.omdbapi.OmdbApi;
+import com.omertron.omdbapi.model.OmdbVideoFull;
+import com.omertron.omdbapi.model.SearchResults;
+import com.omertron.omdbapi.tools.OmdbParameters;
+
+/**
+ * OMDb client answering each call with what the test scripted, numbered
+ * from 1 in the order the calls arrive.
+ */
+class FakeOmdbApi extends OmdbApi {
+
+    interface Answer {
+        OmdbVideoFull answer(int call) throws Exception;
+    }
+
+    private final Answer answer;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    FakeOmdbApi(Answer answer) {
+        this.answer = answer;
+    }
+
+    @Override
+    public OmdbVideoFull getInfo(OmdbParameters parameters) throws OMDBException {
+        try {
+            return answer.answer(calls.incrementAndGet());
+        } catch (OMDBException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new OMDBException(ApiExceptionType.UNKNOWN_CAUSE, e.toString());
+        }
+    }
+
+    @Override
+    public SearchResults search(OmdbParameters parameters) throws OMDBException {
+        throw new OMDBException(ApiExceptionType.ID_NOT_FOUND, "Movie not found!");
+    }
+
+    int getCalls() {
+        return calls.get();
+    }
+
+    static OMDBException notFound() {
+        return new OMDBException(ApiExceptionType.ID_NOT_FOUND, "Movie not found!");
+    }
+}
@@ -0,0 +1,54 @@
+package moviemaster;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsArePowersOfTwoMicroseconds() {
+        assertEquals(0, LatencyHistogram.bucketOf(0L));
+        assertEquals(1, LatencyHistogram.bucketOf(1L));
+        assertEquals(2, LatencyHistogram.bucketOf(3L));
+        assertEquals(10, LatencyHistogram.bucketOf(1023L));
+        assertEquals(11, LatencyHistogram.bucketOf(1024L));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesAreBucketLimitsCappedByTheMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(0.128, histogram.getPercentileMillis(50), 0.0);
+        assertEquals(0.128, histogram.getPercentileMillis(90), 0.0);
+        assertEquals(10.0, histogram.getPercentileMillis(99), 0.0);
+        assertEquals(10.0, histogram.getMaxMillis(), 0.0);
+        assertEquals(1.09, histogram.getMeanMillis(), 1e-9);
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0.0, histogram.getPercentileMillis(99), 0.0);
+        assertEquals(0.0, histogram.getMeanMillis(), 0.0);
+    }
+
+    @Test
+    public void negativeLatencyCountsAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5L);
+
+        assertEquals(1, histogram.getBucketCount(0));
+    }
+}
@@ -0,0 +1,168 @@
+package moviemaster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.omertron.omdbapi.model.OmdbVideoFull;
+
+public class MovieLookupServiceTest {
+
+    private static final long HOUR = 3600000L;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void releaseBlockedCalls() {
+        release.countDown();
+    }
+
+    @Test
+    public void slowAnswerCountsAsBreakerFailure() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, HOUR);
+        OmdbVideoFull alien = MovieRecordCacheTest.video("tt0078748", "Alien");
+        MovieLookupService service = service(new FakeOmdbApi(call -> {
+            Thread.sleep(MovieLookupService.SLOW_CALL_MILLIS + 100);
+            return alien;
+        }), breaker);
+
+        assertSame(alien, service.getMovieInfo("alien", false, Deadline.after(5000L)));
+        awaitState(breaker, CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void notFoundCountsAsBreakerSuccess() {
+        CircuitBreaker breaker = new CircuitBreaker(1, HOUR);
+        MovieLookupService service = service(new FakeOmdbApi(call -> {
+            throw FakeOmdbApi.notFound();
+        }), breaker);
+
+        assertOutcome(LookupOutcome.NOT_FOUND, service, "no such movie", 1000L);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void sharedCallRecordsOneOutcomeHoweverManyCallersTimeOut() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(2, HOUR);
+        FakeOmdbApi omdb = new FakeOmdbApi(call -> {
+            release.await(5, TimeUnit.SECONDS);
+            return MovieRecordCacheTest.video("tt0078748", "Alien");
+        });
+        MovieLookupService service = service(omdb, breaker);
+
+        for (int i = 0; i < 3; i++) {
+            assertOutcome(LookupOutcome.TIMEOUT, service, "alien", 20L);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        release.countDown();
+
+        awaitIdle(service);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1, omdb.getCalls());
+        assertEquals(0, breaker.getTrips());
+    }
+
+    @Test
+    public void rejectedTrialCallReopensTheBreaker() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50L);
+        MovieLookupService service = service(new FakeOmdbApi(call -> {
+            release.await(5, TimeUnit.SECONDS);
+            return MovieRecordCacheTest.video("tt0078748", "Alien");
+        }), breaker);
+        for (int i = 0; i < MovieLookupService.MAX_UPSTREAM_THREADS; i++) {
+            assertOutcome(LookupOutcome.TIMEOUT, service, "blocked " + i, 1L);
+        }
+
+        assertOutcome(LookupOutcome.ERROR, service, "no thread left", 1000L);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(60L);
+        assertOutcome(LookupOutcome.ERROR, service, "trial call", 1000L);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getTrips());
+        assertOutcome(LookupOutcome.CIRCUIT_OPEN, service, "trial call", 1000L);
+    }
+
+    @Test
+    public void exactOmdbHitWinsOverFuzzyIndexMatch() throws Exception {
+        TitleIndex titleIndex = new TitleIndex();
+        titleIndex.register("Alien", "tt0078748");
+        OmdbVideoFull aliens = MovieRecordCacheTest.video("tt0090605", "Aliens");
+        FakeOmdbApi omdb = new FakeOmdbApi(call -> aliens);
+        MovieLookupService service = service(omdb, new CircuitBreaker(), titleIndex);
+
+        assertSame(aliens, service.resolveMovieInfo("aliens", false, Deadline.after(1000L)));
+        assertEquals(1, omdb.getCalls());
+        assertEquals("tt0090605", titleIndex.resolveExact("aliens").getImdbID());
+    }
+
+    @Test
+    public void fuzzyIndexMatchIsFetchedWhenOmdbDoesNotKnowTheTitle() throws Exception {
+        TitleIndex titleIndex = new TitleIndex();
+        titleIndex.register("Alien", "tt0078748");
+        OmdbVideoFull alien = MovieRecordCacheTest.video("tt0078748", "Alien");
+        FakeOmdbApi omdb = new FakeOmdbApi(call -> {
+            if (call == 1) {
+                throw FakeOmdbApi.notFound();
+            }
+            return alien;
+        });
+        MovieLookupService service = service(omdb, new CircuitBreaker(), titleIndex);
+
+        assertSame(alien, service.resolveMovieInfo("allien", false, Deadline.after(1000L)));
+        assertEquals(2, omdb.getCalls());
+    }
+
+    @Test
+    public void exactIndexMatchIsFetchedById() throws Exception {
+        TitleIndex titleIndex = new TitleIndex();
+        titleIndex.register("Alien", "tt0078748");
+        OmdbVideoFull alien = MovieRecordCacheTest.video("tt0078748", "Alien");
+        MovieLookupService service = service(new FakeOmdbApi(call -> alien), new CircuitBreaker(), titleIndex);
+
+        assertSame(alien, service.resolveMovieInfo("the alien", false, Deadline.after(1000L)));
+        assertSame(alien, service.getMovieInfoById("tt0078748", false, Deadline.after(1000L)));
+        assertNull(service.getMovieCache().get("the alien", false));
+    }
+
+    private static MovieLookupService service(FakeOmdbApi omdb, CircuitBreaker breaker) {
+        return service(omdb, breaker, new TitleIndex());
+    }
+
+    private static MovieLookupService service(FakeOmdbApi omdb, CircuitBreaker breaker, TitleIndex titleIndex) {
+        return new MovieLookupService(() -> omdb, new MovieRecordCache(100, HOUR, HOUR, HOUR), breaker, titleIndex);
+    }
+
+    private static void assertOutcome(LookupOutcome expected, MovieLookupService service, String title,
+            long budgetMillis) {
+        try {
+            service.getMovieInfo(title, false, Deadline.after(budgetMillis));
+            fail("Expected " + expected);
+        } catch (MovieLookupException e) {
+            assertEquals(expected, e.getOutcome());
+        }
+    }
+
+    private static void awaitState(CircuitBreaker breaker, CircuitBreaker.State state) throws InterruptedException {
+        long giveUp = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (breaker.getState() != state && System.nanoTime() < giveUp) {
+            Thread.sleep(5);
+        }
+        assertEquals(state, breaker.getState());
+    }
+
+    private static void awaitIdle(MovieLookupService service) throws InterruptedException {
+        long giveUp = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (service.getInfoRequests().getInFlight() > 0 && System.nanoTime() < giveUp) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(20);
+    }
+}
@@ -0,0 +1,29 @@
+package moviemaster;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MovieMasterSpeechletTest {
+
+    @Test
+    public void followsUpOnTheSessionMovie() {
+        MovieSummary withoutTomatoes = movie("tt0068646", false);
+
+        assertTrue(MovieMasterSpeechlet.canFollowUp(withoutTomatoes, false));
+        assertTrue(MovieMasterSpeechlet.canFollowUp(withoutTomatoes, true));
+        assertTrue(MovieMasterSpeechlet.canFollowUp(movie(null, true), true));
+    }
+
+    @Test
+    public void asksForTheMovieWhenTheSessionCannotAnswer() {
+        assertFalse(MovieMasterSpeechlet.canFollowUp(null, false));
+        assertFalse(MovieMasterSpeechlet.canFollowUp(movie(null, false), true));
+    }
+
+    private static MovieSummary movie(String imdbID, boolean tomatoes) {
+        return new MovieSummary("the godfather", imdbID, "The Godfather", null, null, null, "9.2",
+                tomatoes ? "9.1" : null, null, tomatoes);
+    }
+}
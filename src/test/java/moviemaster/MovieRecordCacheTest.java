@@ -0,0 +1,137 @@
+package moviemaster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.omertron.omdbapi.model.OmdbVideoFull;
+
+public class MovieRecordCacheTest {
+
+    private static final long HOUR = 3600000L;
+
+    @Test
+    public void returnsWhatWasPutUnderAnyCaseAndSpacing() {
+        MovieRecordCache cache = new MovieRecordCache(10, HOUR, HOUR, HOUR);
+        OmdbVideoFull video = video("tt0068646", "The Godfather");
+        assertNull(cache.get("the godfather", false));
+
+        cache.put("The  Godfather ", false, video);
+
+        assertSame(video, cache.get("the godfather", false).getVideo());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void recordWithTomatoesAnswersLookupWithoutThem() {
+        MovieRecordCache cache = new MovieRecordCache(10, HOUR, HOUR, HOUR);
+        OmdbVideoFull video = video("tt0068646", "The Godfather");
+        cache.put("the godfather", true, video);
+
+        assertSame(video, cache.get("the godfather", false).getVideo());
+        assertNull(cache.get("the godfather part ii", true));
+    }
+
+    @Test
+    public void recordWithoutTomatoesDoesNotAnswerLookupWithThem() {
+        MovieRecordCache cache = new MovieRecordCache(10, HOUR, HOUR, HOUR);
+        cache.put("the godfather", false, video("tt0068646", "The Godfather"));
+
+        assertNull(cache.get("the godfather", true));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedFirst() {
+        MovieRecordCache cache = new MovieRecordCache(2, HOUR, HOUR, HOUR);
+        cache.put("alien", false, video("tt0078748", "Alien"));
+        cache.put("aliens", false, video("tt0090605", "Aliens"));
+        cache.get("alien", false);
+
+        cache.put("heat", false, video("tt0113277", "Heat"));
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNotNull(cache.get("alien", false));
+        assertNull(cache.get("aliens", false));
+        assertNotNull(cache.get("heat", false));
+    }
+
+    @Test
+    public void expiredRecordIsServedStale() {
+        MovieRecordCache cache = new MovieRecordCache(10, 0L, HOUR, HOUR);
+        OmdbVideoFull video = video("tt0078748", "Alien");
+        cache.put("alien", false, video);
+
+        MovieRecordCache.Entry entry = cache.get("alien", false);
+
+        assertSame(video, entry.getVideo());
+        assertTrue(entry.isStale());
+        assertEquals(1, cache.getStaleHits());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void recordPastItsStalePeriodIsAMiss() {
+        MovieRecordCache cache = new MovieRecordCache(10, 0L, HOUR, 0L);
+        cache.put("alien", false, video("tt0078748", "Alien"));
+
+        assertNull(cache.get("alien", false));
+        assertEquals(1, cache.getExpirations());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void freshRecordWithTomatoesWinsOverStaleOneWithout() throws InterruptedException {
+        MovieRecordCache cache = new MovieRecordCache(10, 20L, HOUR, HOUR);
+        cache.put("alien", false, video("tt0078748", "Alien"));
+        Thread.sleep(30L);
+        OmdbVideoFull withTomatoes = video("tt0078748", "Alien");
+        cache.put("alien", true, withTomatoes);
+
+        MovieRecordCache.Entry entry = cache.get("alien", false);
+
+        assertSame(withTomatoes, entry.getVideo());
+        assertFalse(entry.isStale());
+    }
+
+    @Test
+    public void notFoundEntriesHaveTheirOwnTimeToLiveAndAreNeverStale() {
+        MovieRecordCache cache = new MovieRecordCache(10, HOUR, 0L, HOUR);
+        cache.putNotFound("no such movie", false);
+        cache.put("alien", false, video("tt0078748", "Alien"));
+
+        assertNull(cache.get("no such movie", false));
+        assertNotNull(cache.get("alien", false));
+
+        cache = new MovieRecordCache(10, 0L, HOUR, 0L);
+        cache.putNotFound("no such movie", false);
+        assertTrue(cache.get("no such movie", false).isNotFound());
+    }
+
+    @Test
+    public void purgeDropsOnlyEntriesPastTheirStalePeriod() {
+        MovieRecordCache cache = new MovieRecordCache(10, 0L, 0L, HOUR);
+        cache.put("alien", false, video("tt0078748", "Alien"));
+        cache.putNotFound("no such movie", false);
+        cache.putNotFound("nor this one", true);
+
+        cache.purgeExpired();
+
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.getExpirations());
+    }
+
+    static OmdbVideoFull video(String imdbID, String title) {
+        OmdbVideoFull video = new OmdbVideoFull();
+        video.setImdbID(imdbID);
+        video.setTitle(title);
+        video.setResponse(true);
+        return video;
+    }
+}
@@ -0,0 +1,183 @@
+package moviemaster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MovieRecordStoreTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsSurviveTheRoundTrip() throws IOException {
+        MovieRecordStore store = build(movie("tt0068646", "The Godfather", "Marlon Brando, Al Pacino", true),
+                movie("tt0133093", "The Matrix", "Keanu Reeves", false));
+
+        assertEquals(2, store.size());
+        MovieSummary godfather = store.findByImdbID("tt0068646", "godfather");
+        assertEquals("godfather", godfather.getSpokenTitle());
+        assertEquals("The Godfather", godfather.getTitle());
+        assertEquals("Plot of The Godfather", godfather.getPlot());
+        assertEquals("Marlon Brando, Al Pacino", godfather.getActors());
+        assertEquals("Director of The Godfather", godfather.getDirector());
+        assertEquals("8.0", godfather.getImdbRating());
+        assertEquals("90%", godfather.getTomatoRating());
+        assertEquals("01 Jan 2000", godfather.getReleased());
+        assertTrue(godfather.hasTomatoes());
+        MovieSummary matrix = store.findByImdbID("TT0133093", null);
+        assertEquals("The Matrix", matrix.getSpokenTitle());
+        assertNull(matrix.getTomatoRating());
+        assertFalse(matrix.hasTomatoes());
+    }
+
+    @Test
+    public void findsTitlesByCompactKey() throws IOException {
+        MovieRecordStore store = build(movie("tt0071562", "The Godfather: Part II", "Al Pacino", false));
+
+        assertEquals("tt0071562", store.findByTitle("godfather part two").getImdbID());
+        assertEquals("godfather part two", store.findByTitle("godfather part two").getSpokenTitle());
+        assertNull(store.findByTitle("the godfather"));
+        assertNull(store.findByTitle(" "));
+        assertNull(store.findByImdbID("tt0000000", null));
+    }
+
+    @Test
+    public void laterRecordReplacesEarlierOneWithTheSameImdbID() throws IOException {
+        MovieRecordStore store = build(movie("tt0078748", "Alien", "Sigourney Weaver", false),
+                movie("tt0078748", "Alien", "Sigourney Weaver, Tom Skerritt", false));
+
+        assertEquals("Sigourney Weaver, Tom Skerritt", store.findByImdbID("tt0078748", null).getActors());
+        assertEquals("Sigourney Weaver, Tom Skerritt", store.findByTitle("alien").getActors());
+    }
+
+    @Test
+    public void replacedRecordIsNotFoundByItsOldTitle() throws IOException {
+        MovieRecordStore store = build(movie("tt0078748", "Alien Working Title", "Sigourney Weaver", false),
+                movie("tt0078748", "Alien", "Sigourney Weaver", false));
+
+        assertEquals(1, store.size());
+        assertNull(store.findByTitle("alien working title"));
+        assertEquals("Alien", store.findByTitle("alien").getTitle());
+    }
+
+    @Test
+    public void replacedRecordDoesNotHideAnotherMovieWithItsTitle() throws IOException {
+        MovieRecordStore store = build(movie("tt0090605", "Aliens", "Sigourney Weaver", false),
+                movie("tt0078748", "Alien", "Sigourney Weaver", false),
+                movie("tt0090605", "Aliens (Special Edition)", "Sigourney Weaver", false),
+                movie("tt9999999", "Alien", "Someone Else", false),
+                movie("tt9999999", "Alien Remake", "Someone Else", false));
+
+        assertEquals("tt0078748", store.findByTitle("alien").getImdbID());
+        assertNull(store.findByTitle("aliens"));
+        assertEquals("tt0090605", store.findByTitle("aliens special edition").getImdbID());
+    }
+
+    @Test
+    public void skipsMoviesThatCannotBeLookedUp() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("movies.mmrs");
+        try (MovieRecordStoreBuilder builder = new MovieRecordStoreBuilder(path)) {
+            assertFalse(builder.add(movie(null, "Alien", null, false)));
+            assertFalse(builder.add(movie("tt0078748", "The", null, false)));
+            assertTrue(builder.add(movie("tt0078748", "Alien", null, false)));
+            assertEquals(2, builder.getSkipped());
+            assertEquals(1, builder.finish());
+        }
+        assertEquals(1, MovieRecordStore.open(path).size());
+    }
+
+    @Test
+    public void manyRecordsCanAllBeFound() throws IOException {
+        MovieSummary[] movies = new MovieSummary[1000];
+        for (int i = 0; i < movies.length; i++) {
+            movies[i] = movie("tt" + (1000000 + i), "Movie number " + i + " x", null, false);
+        }
+        MovieRecordStore store = build(movies);
+
+        for (int i = 0; i < movies.length; i++) {
+            assertEquals("tt" + (1000000 + i), store.findByTitle("movie number " + i + " x").getImdbID());
+            assertEquals(movies[i].getTitle(), store.findByImdbID("tt" + (1000000 + i), null).getTitle());
+        }
+    }
+
+    @Test
+    public void unfinishedBuildLeavesNoStore() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("movies.mmrs");
+        try (MovieRecordStoreBuilder builder = new MovieRecordStoreBuilder(path)) {
+            builder.add(movie("tt0078748", "Alien", null, false));
+        }
+
+        assertFalse(Files.exists(path));
+        assertFalse(Files.exists(path.resolveSibling("movies.mmrs.partial")));
+    }
+
+    @Test
+    public void rejectsOtherFormatVersions() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("movies.mmrs");
+        try (MovieRecordStoreBuilder builder = new MovieRecordStoreBuilder(path)) {
+            builder.add(movie("tt0078748", "Alien", null, false));
+            builder.finish();
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            ByteBuffer version = ByteBuffer.allocate(4);
+            version.putInt(0, MovieRecordStore.VERSION + 1);
+            channel.write(version, MovieRecordStore.VERSION_OFFSET);
+        }
+
+        try {
+            MovieRecordStore.open(path);
+            fail("Expected the version to be rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("format version"));
+        }
+    }
+
+    @Test
+    public void rejectsFilesThatAreNotStores() throws IOException {
+        Path path = folder.newFile("movies.mmrs").toPath();
+        Files.write(path, new byte[MovieRecordStore.HEADER_BYTES]);
+
+        try {
+            MovieRecordStore.open(path);
+            fail("Expected the file to be rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("not a record store"));
+        }
+    }
+
+    @Test
+    public void emptyStoreFindsNothing() {
+        assertNull(MovieRecordStore.empty().findByTitle("alien"));
+        assertNull(MovieRecordStore.empty().findByImdbID("tt0078748", "alien"));
+    }
+
+    private MovieRecordStore build(MovieSummary... movies) throws IOException {
+        Path path = folder.getRoot().toPath().resolve("movies.mmrs");
+        try (MovieRecordStoreBuilder builder = new MovieRecordStoreBuilder(path)) {
+            for (MovieSummary movie : movies) {
+                builder.add(movie);
+            }
+            builder.finish();
+        }
+        return MovieRecordStore.open(path);
+    }
+
+    static MovieSummary movie(String imdbID, String title, String actors, boolean tomatoes) {
+        return new MovieSummary(null, imdbID, title, "Plot of " + title, actors, "Director of " + title, "8.0",
+                tomatoes ? "90%" : null, "01 Jan 2000", tomatoes);
+    }
+}
@@ -0,0 +1,68 @@
+package moviemaster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.omertron.omdbapi.model.OmdbVideoFull;
+
+public class MovieSummaryTest {
+
+    @Test
+    public void survivesTheSessionAttributes() {
+        MovieSummary summary = MovieSummary.from("the god father", godfather(), true);
+
+        MovieSummary restored = MovieSummary.fromAttributes(summary.toAttributes());
+
+        assertEquals("the god father", restored.getSpokenTitle());
+        assertEquals("tt0068646", restored.getImdbID());
+        assertEquals("The Godfather", restored.getTitle());
+        assertEquals("Marlon Brando, Al Pacino", restored.getActors());
+        assertEquals("Francis Ford Coppola", restored.getDirector());
+        assertEquals("9.2", restored.getImdbRating());
+        assertEquals("9.1", restored.getTomatoRating());
+        assertEquals("24 Mar 1972", restored.getReleased());
+        assertTrue(restored.hasTomatoes());
+    }
+
+    @Test
+    public void leavesOutTheTomatoRatingWhenNotAskedFor() {
+        MovieSummary summary = MovieSummary.from("the godfather", godfather(), false);
+
+        assertNull(summary.getTomatoRating());
+        assertFalse(MovieSummary.fromAttributes(summary.toAttributes()).hasTomatoes());
+    }
+
+    @Test
+    public void ignoresAttributesItDidNotWrite() {
+        assertNull(MovieSummary.fromAttributes(null));
+        assertNull(MovieSummary.fromAttributes("The Godfather"));
+        Map<String, Object> withoutTitle = Collections.<String, Object> singletonMap("imdbID", "tt0068646");
+        assertNull(MovieSummary.fromAttributes(withoutTitle));
+    }
+
+    @Test
+    public void matchesTheSpokenAndTheOmdbTitle() {
+        MovieSummary summary = MovieSummary.from("the god father", godfather(), false);
+
+        assertTrue(summary.matches("The God  Father"));
+        assertTrue(summary.matches("the godfather"));
+        assertFalse(summary.matches("the godfather part ii"));
+    }
+
+    private static OmdbVideoFull godfather() {
+        OmdbVideoFull video = MovieRecordCacheTest.video("tt0068646", "The Godfather");
+        video.setActors("Marlon Brando, Al Pacino");
+        video.setDirector("Francis Ford Coppola");
+        video.setImdbRating("9.2");
+        video.setTomatoRating("9.1");
+        video.setReleased("24 Mar 1972");
+        return video;
+    }
+}
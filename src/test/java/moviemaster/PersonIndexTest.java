@@ -0,0 +1,124 @@
+package moviemaster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PersonIndexTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void findsPeopleByFullOrLastNameIgnoringAccents() {
+        PersonIndex index = new PersonIndex();
+        index.register("tt0068646", "The Godfather", "Francis Ford Coppola", "Marlon Brando, Al Pacino", 9.2f);
+        index.register("tt0118799", "Life Is Beautiful", "Roberto Benigni", "Roberto Benigni", 8.6f);
+
+        assertEquals("Francis Ford Coppola", director(index, "francis ford coppola").getPersonName());
+        assertEquals("Francis Ford Coppola", director(index, "Coppola").getPersonName());
+        assertEquals("Al Pacino", actor(index, "al pacino").getPersonName());
+        assertEquals("Roberto Benigni", actor(index, "Roberto Ben\u00edgni").getPersonName());
+        assertNull(director(index, "Sofia Coppola"));
+        assertNull(director(index, "Kubrick"));
+        assertNull(director(index, " "));
+    }
+
+    @Test
+    public void keepsTheRolesApart() {
+        PersonIndex index = new PersonIndex();
+        index.register("tt0118799", "Life Is Beautiful", "Roberto Benigni", "Roberto Benigni", 8.6f);
+        index.register("tt0071562", "The Godfather Part II", "Francis Ford Coppola", "Al Pacino", 9.0f);
+
+        assertNull(actor(index, "Coppola"));
+        assertNull(director(index, "Al Pacino"));
+        assertEquals(1, actor(index, "Benigni").getMovieCount());
+        assertEquals(1, director(index, "Benigni").getMovieCount());
+    }
+
+    @Test
+    public void listsTheBestRatedMoviesFirstAndUnratedOnesLast() {
+        PersonIndex index = new PersonIndex();
+        index.register("tt1", "Unrated", "Jane Doe", null, Float.NaN);
+        index.register("tt2", "Good", "Jane Doe", null, 7.0f);
+        index.register("tt3", "Best", "Jane Doe", null, 9.0f);
+        index.register("tt4", "Bad", "Jane Doe", null, 3.0f);
+
+        PersonIndex.Filmography filmography = index.find("Jane Doe", PersonIndex.Role.DIRECTOR, 3);
+
+        assertEquals(4, filmography.getMovieCount());
+        assertEquals(PersonIndex.Role.DIRECTOR, filmography.getRole());
+        assertEquals("[Best, Good, Bad]", titles(filmography).toString());
+        assertEquals("tt3", filmography.getMovies().get(0).getImdbID());
+        assertEquals("[Best, Good, Bad, Unrated]",
+                titles(index.find("doe", PersonIndex.Role.DIRECTOR, 10)).toString());
+    }
+
+    @Test
+    public void stripsCreditNotes() {
+        PersonIndex index = new PersonIndex();
+        index.register("tt0120363", "Toy Story 2", "John Lasseter, Ash Brannon (co-director)", null, 7.9f);
+
+        assertEquals("Ash Brannon", director(index, "ash brannon").getPersonName());
+    }
+
+    @Test
+    public void registeringAMovieAgainOnlyUpdatesTitleAndRating() {
+        PersonIndex index = new PersonIndex();
+        index.register("tt0078748", "Alien", "Ridley Scott", "Sigourney Weaver", Float.NaN);
+        index.register("TT0078748", "Alien (1979)", "Ridley Scott, Someone Else", "Sigourney Weaver", 8.5f);
+
+        PersonIndex.Filmography filmography = director(index, "Ridley Scott");
+        assertEquals(1, index.size());
+        assertEquals(1, filmography.getMovieCount());
+        assertEquals("Alien (1979)", filmography.getMovies().get(0).getTitle());
+        assertEquals(8.5f, filmography.getMovies().get(0).getImdbRating(), 0f);
+        assertNull(director(index, "Someone Else"));
+    }
+
+    @Test
+    public void registerAllAddsTheLiveRecordsOfTheStore() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("movies.mmrs");
+        try (MovieRecordStoreBuilder builder = new MovieRecordStoreBuilder(path)) {
+            builder.add(new MovieSummary(null, "tt0078748", "Alien", null, "Sigourney Weaver", "Ridley Scott",
+                    "8.5", null, null, false));
+            builder.add(new MovieSummary(null, "tt0090605", "Aliens", null, "Sigourney Weaver", "Nobody",
+                    "8.3", null, null, false));
+            builder.add(new MovieSummary(null, "tt0090605", "Aliens", null, "Sigourney Weaver", "James Cameron",
+                    "8.4", null, null, false));
+            builder.finish();
+        }
+        PersonIndex index = new PersonIndex();
+
+        index.registerAll(MovieRecordStore.open(path));
+
+        assertEquals(2, index.size());
+        assertEquals("[Alien, Aliens]", titles(actor(index, "Weaver")).toString());
+        assertEquals(8.4f, director(index, "Cameron").getMovies().get(0).getImdbRating(), 0f);
+        assertNull(director(index, "Nobody"));
+    }
+
+    private static PersonIndex.Filmography director(PersonIndex index, String name) {
+        return index.find(name, PersonIndex.Role.DIRECTOR, 5);
+    }
+
+    private static PersonIndex.Filmography actor(PersonIndex index, String name) {
+        return index.find(name, PersonIndex.Role.ACTOR, 5);
+    }
+
+    private static List<String> titles(PersonIndex.Filmography filmography) {
+        List<String> titles = new ArrayList<String>();
+        for (PersonIndex.Movie movie : filmography.getMovies()) {
+            titles.add(movie.getTitle());
+        }
+        return titles;
+    }
+}
@@ -0,0 +1,85 @@
+package moviemaster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.amazon.speech.speechlet.SpeechletResponse;
+import com.amazon.speech.ui.SimpleCard;
+import com.amazon.speech.ui.SsmlOutputSpeech;
+
+public class ResponseRendererTest {
+
+    @Test
+    public void escapesSsmlMarkup() {
+        StringBuilder ssml = new StringBuilder();
+        ResponseRenderer.escapeSsml("Tom & Jerry <3 > all", ssml);
+
+        assertEquals("Tom &amp; Jerry &lt;3 &gt; all", ssml.toString());
+    }
+
+    @Test
+    public void escapesQuotes() {
+        StringBuilder ssml = new StringBuilder();
+        ResponseRenderer.escapeSsml("Schindler's \"List\"", ssml);
+
+        assertEquals("Schindler&apos;s &quot;List&quot;", ssml.toString());
+    }
+
+    @Test
+    public void plainTextIsCopiedUnchanged() {
+        StringBuilder ssml = new StringBuilder("<p>");
+        ResponseRenderer.escapeSsml("The Godfather", ssml);
+        ResponseRenderer.escapeSsml("", ssml);
+
+        assertEquals("<p>The Godfather", ssml.toString());
+    }
+
+    @Test
+    public void linesBecomeEscapedParagraphsAndPlainCardText() {
+        SpeechletResponse response = ResponseRenderer.begin()
+                .line("Movie title is ", "Fast & Furious", ".")
+                .line("It has ", 2, " sequels.")
+                .ask("Information for movie Fast & Furious", ResponseRenderer.reprompt("More?"));
+
+        assertEquals("<speak><p>Movie title is Fast &amp; Furious.</p> <p>It has 2 sequels.</p> </speak>",
+                ssml(response));
+        SimpleCard card = (SimpleCard) response.getCard();
+        assertEquals("Information for movie Fast & Furious", card.getTitle());
+        assertEquals("Movie title is Fast & Furious. It has 2 sequels. ", card.getContent());
+    }
+
+    @Test
+    public void nullPartsAreSkipped() {
+        ResponseRenderer renderer = ResponseRenderer.begin().line("Plot: ", null).line(null, "Unknown", null);
+
+        assertEquals(2, renderer.lineCount());
+        assertEquals("<speak><p>Plot: </p> <p>Unknown</p> </speak>", ssml(renderer.tell()));
+    }
+
+    @Test
+    public void beginStartsAnEmptyResponseOnTheSameThread() {
+        ResponseRenderer first = ResponseRenderer.begin().line("Alien");
+        first.tell();
+
+        ResponseRenderer second = ResponseRenderer.begin();
+
+        assertSame(first, second);
+        assertEquals(0, second.lineCount());
+        SpeechletResponse response = second.line("Heat").tell();
+        assertEquals("<speak><p>Heat</p> </speak>", ssml(response));
+        assertNull(response.getCard());
+    }
+
+    @Test
+    public void constantSsmlTellEscapesItsParagraph() {
+        assertEquals("<speak><p>Rock &amp; roll</p> </speak>",
+                ssml(ResponseRenderer.constantSsmlTell("Rock & roll")));
+    }
+
+    private static String ssml(SpeechletResponse response) {
+        return ((SsmlOutputSpeech) response.getOutputSpeech()).getSsml();
+    }
+}
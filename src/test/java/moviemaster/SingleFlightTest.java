@@ -0,0 +1,117 @@
+package moviemaster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+    @Test
+    public void callersWhileInFlightShareOneCall() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<String, String>();
+        CompletableFuture<String> upstream = new CompletableFuture<String>();
+        AtomicInteger calls = new AtomicInteger();
+
+        CompletableFuture<String> first = flights.execute("alien", () -> {
+            calls.incrementAndGet();
+            return upstream;
+        });
+        CompletableFuture<String> second = flights.execute("alien", () -> {
+            calls.incrementAndGet();
+            return new CompletableFuture<String>();
+        });
+        upstream.complete("Alien");
+
+        assertSame(first, second);
+        assertEquals("Alien", second.get());
+        assertEquals(1, calls.get());
+        assertEquals(1, flights.getUpstreamCalls());
+        assertEquals(1, flights.getCoalescedCalls());
+        assertEquals(0, flights.getInFlight());
+    }
+
+    @Test
+    public void callersWhileInFlightShareTheFailure() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<String, String>();
+        CompletableFuture<String> upstream = new CompletableFuture<String>();
+        CompletableFuture<String> first = flights.execute("alien", () -> upstream);
+        CompletableFuture<String> second = flights.execute("alien", () -> upstream);
+        IllegalStateException failure = new IllegalStateException("OMDb is down");
+
+        upstream.completeExceptionally(failure);
+
+        for (CompletableFuture<?> flight : new CompletableFuture<?>[] { first, second }) {
+            try {
+                flight.get();
+                fail("Expected the upstream failure");
+            } catch (ExecutionException e) {
+                assertSame(failure, e.getCause());
+            }
+        }
+        assertEquals(0, flights.getInFlight());
+    }
+
+    @Test
+    public void finishedCallIsNotShared() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<String, String>();
+
+        assertEquals("Alien", flights.execute("alien", () -> CompletableFuture.completedFuture("Alien")).get());
+        assertEquals("Alien again",
+                flights.execute("alien", () -> CompletableFuture.completedFuture("Alien again")).get());
+        assertEquals(2, flights.getUpstreamCalls());
+        assertEquals(0, flights.getCoalescedCalls());
+    }
+
+    @Test
+    public void differentKeysAreNotShared() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<String, String>();
+        CompletableFuture<String> alien = flights.execute("alien", () -> new CompletableFuture<String>());
+
+        CompletableFuture<String> heat = flights.execute("heat", () -> CompletableFuture.completedFuture("Heat"));
+
+        assertEquals("Heat", heat.get());
+        assertFalse(alien.isDone());
+        assertEquals(0, flights.getCoalescedCalls());
+    }
+
+    @Test
+    public void callThatThrowsFailsItsFlightAndFreesTheKey() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<String, String>();
+
+        CompletableFuture<String> flight = flights.execute("alien", () -> {
+            throw new IllegalStateException("No thread left");
+        });
+
+        assertTrue(flight.isCompletedExceptionally());
+        assertEquals(0, flights.getInFlight());
+    }
+
+    @Test
+    public void callerGivingUpDoesNotCancelTheCall() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<String, String>();
+        CompletableFuture<String> upstream = new CompletableFuture<String>();
+        CompletableFuture<String> impatient = flights.execute("alien", () -> upstream);
+        try {
+            impatient.get(1, TimeUnit.MILLISECONDS);
+            fail("Expected a timeout");
+        } catch (TimeoutException e) {
+            // the caller stops waiting, the call goes on
+        }
+        CompletableFuture<String> patient = flights.execute("alien", () -> upstream);
+
+        upstream.complete("Alien");
+
+        assertEquals("Alien", patient.get());
+        assertEquals(1, flights.getUpstreamCalls());
+    }
+}
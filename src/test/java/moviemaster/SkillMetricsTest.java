@@ -0,0 +1,81 @@
+package moviemaster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class SkillMetricsTest {
+
+    @Test
+    public void flushRendersTheIntervalAsEmf() {
+        SkillMetrics metrics = new SkillMetrics();
+        metrics.increment("Intent.MovieIntent");
+        metrics.increment("Intent.MovieIntent");
+        metrics.recordLatency("Omdb.getInfo", 1500000L);
+
+        String emf = metrics.flush(1000L, Collections.singletonMap("requestId", "abc\"1\n"));
+
+        assertEquals("{\"_aws\":{\"Timestamp\":1000,\"CloudWatchMetrics\":[{\"Namespace\":\"MovieMaster\","
+                + "\"Dimensions\":[[\"Service\"]],\"Metrics\":[{\"Name\":\"Omdb.getInfo\",\"Unit\":\"Milliseconds\"},"
+                + "{\"Name\":\"Intent.MovieIntent\",\"Unit\":\"Count\"}]}]},\"Service\":\"MovieMaster\","
+                + "\"requestId\":\"abc\\\"1\\u000a\",\"Omdb.getInfo\":[1.5],\"Intent.MovieIntent\":2}", emf);
+    }
+
+    @Test
+    public void flushReportsOnlyWhatWasRecordedSinceThePreviousOne() {
+        SkillMetrics metrics = new SkillMetrics();
+        metrics.increment("Intent.MovieIntent");
+        metrics.recordLatency("Render", 1000L);
+        metrics.flush(1000L, null);
+
+        assertNull(metrics.flush(2000L, null));
+        metrics.increment("Intent.MovieIntent");
+        assertTrue(metrics.flush(3000L, null).endsWith(",\"Intent.MovieIntent\":1}"));
+        assertEquals(2, metrics.getCount("Intent.MovieIntent"));
+        assertEquals(1, metrics.getLatency("Render").getCount());
+    }
+
+    @Test
+    public void registeredCounterReportsItsIncrease() {
+        SkillMetrics metrics = new SkillMetrics();
+        AtomicLong hits = new AtomicLong(5);
+        metrics.registerCounter("Cache.hits", hits::get);
+
+        assertTrue(metrics.flush(1000L, null).endsWith(",\"Cache.hits\":5}"));
+        hits.addAndGet(2);
+        assertTrue(metrics.flush(2000L, null).endsWith(",\"Cache.hits\":2}"));
+        assertNull(metrics.flush(3000L, null));
+    }
+
+    @Test
+    public void intervalKeepsAtMostTheEmfSampleLimit() {
+        SkillMetrics metrics = new SkillMetrics();
+        for (int i = 0; i < SkillMetrics.MAX_INTERVAL_SAMPLES + 50; i++) {
+            metrics.recordLatency("Render", 2000000L);
+        }
+
+        String emf = metrics.flush(1000L, null);
+
+        String values = emf.substring(emf.indexOf("\"Render\":[") + 10, emf.lastIndexOf(']'));
+        assertEquals(SkillMetrics.MAX_INTERVAL_SAMPLES, values.split(",").length);
+        assertEquals(SkillMetrics.MAX_INTERVAL_SAMPLES + 50, metrics.getLatency("Render").getCount());
+    }
+
+    @Test
+    public void resetIntervalDropsWhatWasRecorded() {
+        SkillMetrics metrics = new SkillMetrics();
+        metrics.increment("Intent.MovieIntent");
+        metrics.recordLatency("Render", 1000L);
+
+        metrics.resetInterval();
+
+        assertNull(metrics.flush(1000L, null));
+        assertNull(metrics.getLatency("Omdb.search"));
+        assertEquals(0, metrics.getCount("Omdb.search"));
+    }
+}
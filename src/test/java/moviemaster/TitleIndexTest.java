@@ -0,0 +1,99 @@
+package moviemaster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TitleIndexTest {
+
+    @Test
+    public void exactMatchIgnoresCaseArticlesAndPunctuation() {
+        TitleIndex index = new TitleIndex();
+        index.register("The Lord of the Rings: The Two Towers", "tt0167261");
+
+        TitleIndex.Match match = index.resolveExact("lord of the rings two towers");
+
+        assertEquals("tt0167261", match.getImdbID());
+        assertEquals("The Lord of the Rings: The Two Towers", match.getTitle());
+        assertEquals(1.0, match.getScore(), 0.0);
+    }
+
+    @Test
+    public void numberWordsAndRomanNumeralsMatchDigits() {
+        TitleIndex index = new TitleIndex();
+        index.register("Toy Story 3", "tt0435761");
+        index.register("The Godfather: Part III", "tt0099674");
+
+        assertEquals("tt0435761", index.resolveExact("toy story three").getImdbID());
+        assertEquals("tt0099674", index.resolveExact("the godfather part 3").getImdbID());
+    }
+
+    @Test
+    public void exactLookupDoesNotMatchMisheardTitles() {
+        TitleIndex index = new TitleIndex();
+        index.register("Alien", "tt0078748");
+
+        assertNull(index.resolveExact("allien"));
+    }
+
+    @Test
+    public void fuzzyLookupMatchesMisheardTitles() {
+        TitleIndex index = new TitleIndex();
+        index.register("Alien", "tt0078748");
+        index.register("The Shawshank Redemption", "tt0111161");
+
+        assertEquals("tt0078748", index.resolveFuzzy("allien").getImdbID());
+        TitleIndex.Match match = index.resolveFuzzy("shawshank redemtion");
+        assertEquals("tt0111161", match.getImdbID());
+        assertTrue(match.getScore() >= TitleIndex.MIN_SIMILARITY);
+    }
+
+    @Test
+    public void fuzzyLookupSkipsTitlesWithOtherNumbers() {
+        TitleIndex index = new TitleIndex();
+        index.register("Alien", "tt0078748");
+        index.register("The Terminator", "tt0088247");
+
+        assertNull(index.resolveFuzzy("alien 3"));
+        assertNull(index.resolveFuzzy("terminator three"));
+    }
+
+    @Test
+    public void fuzzyLookupRejectsUnrelatedTitles() {
+        TitleIndex index = new TitleIndex();
+        index.register("Alien", "tt0078748");
+
+        assertNull(index.resolveFuzzy("pulp fiction"));
+    }
+
+    @Test
+    public void registeringAnImdbIDAgainAddsASpokenVariant() {
+        TitleIndex index = new TitleIndex();
+        index.register("Se7en", "tt0114369");
+        index.register("Seven", "tt0114369");
+
+        assertEquals("tt0114369", index.resolveExact("se7en").getImdbID());
+        assertEquals("tt0114369", index.resolveExact("seven").getImdbID());
+    }
+
+    @Test
+    public void blankTitlesAreIgnored() {
+        TitleIndex index = new TitleIndex();
+        index.register(" ", "tt0078748");
+        index.register("Alien", null);
+
+        assertEquals(0, index.size());
+        assertNull(index.resolveExact("the"));
+        assertNull(index.resolveFuzzy(""));
+    }
+
+    @Test
+    public void seedTitlesAreLoaded() {
+        TitleIndex index = TitleIndex.withSeedTitles();
+
+        assertNotNull(index.resolveExact("the matrix"));
+    }
+}